@@ -1,9 +1,7 @@
 package challenges.day07;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A nice and family-friendly game of CamelCards
@@ -11,22 +9,44 @@ import java.util.Map;
  * @author Joris
  */
 public class CamelCards {
-	/** The list of hands in this game */
-	private final List<CCHand> hands;
+	/** The hands in this game, each packed into a single long that holds the
+	 *  encoded hand value in the upper and the bid in the lower 32 bits */
+	private long[] hands;
+	
+	/** The number of hands in the game */
+	private int size;
 	
 	/** Ue jokers in the game */
 	private final boolean useJokers;
 	
+	/** The number of bits used to encode a single card */
+	protected static final int CARD_BITS = 4;
+	
+	/** The number of cards in a single hand */
+	protected static final int HAND_SIZE = 5;
+	
 	/**
 	 * Creates a new game of CamelCards
 	 * 
 	 * @param useJokers True to use jokers
 	 */
 	public CamelCards( final boolean useJokers ) {
-		hands = new ArrayList<>();
+		hands = new long[ 16 ];
+		size = 0;
 		this.useJokers = useJokers;
 	}
 	
+	/**
+	 * Adds a hand to the game
+	 * 
+	 * @param cards The 5 cards in this hand
+	 * @param bid The bid associated with the hand for scoring purposes
+	 */
+	public void addHand( final String cards, final int bid ) {
+		if( size == hands.length ) hands = Arrays.copyOf( hands, size * 2 );
+		hands[ size++ ] = ((long)encodeHand( cards, useJokers ) << 32) | (bid & 0xFFFFFFFFL);
+	}
+	
 	/**
 	 * Ranks the hands in the game on their value and computes the total winnings
 	 * in the game.
@@ -35,15 +55,46 @@ public class CamelCards {
 	 */
 	public long getTotalWinnings( ) {
 		// sort hands based upon their value
-		final List<CCHand> sorted = new ArrayList<>( hands );
-		sorted.sort( CCHand::compareTo );
+		final long[] sorted = Arrays.copyOf( hands, size );
+		radixSort( sorted );
 		
-		// sum over hand bids times their rank to determine total winnings
+		// sum over hand bids times their rank to determine total winnings, the
+		// bid is stored in the lower 32 bits as a signed integer
 		long winnings = 0;
-		for( int i = 0; i < sorted.size( ); i++ )
-			winnings += sorted.get( i ).bid * (long)(i+1);
+		for( int i = 0; i < sorted.length; i++ )
+			winnings += (long)(int)sorted[i] * (long)(i+1);
 		return winnings;
 	}
+	
+	/**
+	 * Sorts the packed hands on their hand value using a least-significant digit
+	 * radix sort over the bytes of the encoded value. The sort is stable so that
+	 * hands of equal value keep their relative order.
+	 * 
+	 * @param values The array of packed hands to sort in place
+	 */
+	private static void radixSort( final long[] values ) {
+		final long[] buffer = new long[ values.length ];
+		final int[] counts = new int[ 257 ];
+		
+		// the hand value occupies the (1 + HAND_SIZE) nibbles above the bid
+		long[] src = values;
+		long[] dst = buffer;
+		for( int shift = 32; shift < 32 + (HAND_SIZE + 1) * CARD_BITS; shift += 8 ) {
+			// count occurrences of every byte value and turn them into offsets
+			Arrays.fill( counts, 0 );
+			for( final long v : src ) counts[ (int)((v >>> shift) & 0xFF) + 1 ]++;
+			for( int i = 1; i < counts.length; i++ ) counts[i] += counts[i - 1];
+			
+			// then distribute the values over their buckets
+			for( final long v : src ) dst[ counts[ (int)((v >>> shift) & 0xFF) ]++ ] = v;
+			
+			final long[] tmp = src; src = dst; dst = tmp;
+		}
+		
+		// make sure the result ends up in the input array
+		if( src != values ) System.arraycopy( src, 0, values, 0, values.length );
+	}
 
 	/**
 	 * Reconstructs a game of CamelCards from a list of hands and bids
@@ -57,135 +108,104 @@ public class CamelCards {
 		
 		for( final String s : input ) {
 			final String[] str = s.split( " " );
-			CC.hands.add( CC.new CCHand( str[0], Integer.parseInt( str[1] ) ) );
+			CC.addHand( str[0], Integer.parseInt( str[1] ) );
 		}
 		
 		return CC;		
 	}
 	
 	/**
-	 * One single hand in a game of CamelCards
+	 * Determines the value of a hand of cards and encodes it into a single
+	 * integer. The value is constructed of a nibble that holds the type of the
+	 * hand, followed by one nibble per card that holds its face value. Hence,
+	 * comparing the encoded values of two hands orders them on winning value.
 	 * 
-	 * @author Joris
+	 * @param hand The 5 cards in the hand
+	 * @param useJokers True if the 'J' cards should be considered jokers
+	 * @return The encoded hand value
 	 */
-	protected class CCHand implements Comparable<CCHand> {
-		/** The hand */
-		protected final String hand;
-		
-		/** The value of the hand */
-		protected final long value;
+	protected static int encodeHand( final String hand, final boolean useJokers ) {
+		if( hand.length( ) != HAND_SIZE ) throw new RuntimeException( "Invalid hand: " + hand );
 		
-		/** The bid associated with this hand */
-		protected final int bid;
-		
-		/**
-		 * Constructs a new hand of cards, immediately computes its value
-		 * 
-		 * @param cards The 5 cards in this hand
-		 * @param bid The bid associated with the hand for scoring purposes
-		 */
-		protected CCHand( final String cards, final int bid ) {
-			this.hand = cards;
-			this.bid = bid;
-			this.value = computeValue( );
+		// count occurrence of each card and encode their face values
+		final int[] counts = new int[ 15 ];
+		int value = 0;
+		for( int i = 0; i < HAND_SIZE; i++ ) {
+			final int card = getCardValue( hand.charAt( i ), useJokers );
+			counts[ card ]++;
+			value = (value << CARD_BITS) | card;
 		}
 
-		/**
-		 * Determines the value of this hand of cards
-		 * 
-		 * @return The value of this hand given by a number that starts with the 
-		 *   type, followed by a value per individual card
-		 */
-		private long computeValue( ) {
-			// determine type
-			final int type = getHandType( );
-			
-			// add hand value
-			long cval = 0;
-			for( int i = 0; i < hand.length( ); i++ )
-				cval += Math.pow( 100, hand.length( ) - i - 1 ) * getCardValue( hand.charAt( i ) );
-			
-			// set value to type followed by card values
-			return cval + type * (long)Math.pow( 100, hand.length( ) );
-		}
+		// prefix the card values with the type of hand
+		return (getHandType( counts ) << (HAND_SIZE * CARD_BITS)) | value;
+	}
 		
-		/** 
-		 * Determines the type of hand we have, i.e., 5 of a kind, full house, etc.
-		 * 
-		 * @return The type of hand, a value from 6 to 0 reflecting the type's
-		 *   value
-		 */
-		private int getHandType( ) {
-			// count occurrence of each character
-			final Map<Character, Integer> occ = new HashMap<>( hand.length( ) );
-			for( final char c : hand.toCharArray( ) ) occ.put( c, occ.getOrDefault( c, 0 ) + 1 );
+	/** 
+	 * Determines the type of hand we have, i.e., 5 of a kind, full house, etc.
+	 * 
+	 * @param counts The number of occurrences per card value, jokers have value
+	 *   zero
+	 * @return The type of hand, a value from 6 to 0 reflecting the type's
+	 *   value
+	 */
+	private static int getHandType( final int[] counts ) {
+		// the jokers are not counted as cards, they simply add to the best set
+		final int jokers = counts[0];
 
-			// if we use jokers, remove the 'J' cards from the count
-			final int jokers;
-			if( useJokers && occ.containsKey( 'J' ) ) {
-				jokers = occ.remove( 'J' );
-			} else { jokers = 0; }
-			
-			// get the highest count of matching cards
-			final int maxcount = occ.values( ).stream( ).mapToInt( Integer::intValue ).max( ).orElse( 0 );
+		// get the highest and second highest count of matching cards
+		int maxcount = 0;
+		int secondcount = 0;
+		for( int i = 1; i < counts.length; i++ ) {
+			if( counts[i] > maxcount ) {
+				secondcount = maxcount;
+				maxcount = counts[i];
+			} else if( counts[i] > secondcount ) {
+				secondcount = counts[i];
+			}
+		}
 			
-			// check what hand we have
-			// five of a kind (possibly with jokers)
-			if( maxcount >= 5 - jokers ) return 6;
+		// check what hand we have
+		// five of a kind (possibly with jokers)
+		if( maxcount >= 5 - jokers ) return 6;
 			
-			// four of a kind
-			if( maxcount >= 4 - jokers ) return 5;
+		// four of a kind
+		if( maxcount >= 4 - jokers ) return 5;
 			
-			// full house, possibly constructed with a joker. To check this there
-			// must be at least 2 different pairs in the hand. Note that if we would
-			// have more that one joker and a pair, we would get 4 of a kind
-			if( maxcount >= 3 - jokers && occ.values( ).stream( ).filter( x -> x >= 2 ).count( ) > 1 ) return 4;
+		// full house, possibly constructed with a joker. To check this there
+		// must be at least 2 different pairs in the hand. Note that if we would
+		// have more that one joker and a pair, we would get 4 of a kind
+		if( maxcount >= 3 - jokers && secondcount >= 2 ) return 4;
 			
-			// three of a kind
-			if( maxcount >= 3 - jokers ) return 3;
+		// three of a kind
+		if( maxcount >= 3 - jokers ) return 3;
 			
-			// two pairs and one pair
-			final int pairs = (int)occ.values( ).stream( ).filter( x -> x == 2 ).count( );
-			if( pairs > 0 ) return pairs;
+		// two pairs and one pair
+		if( maxcount == 2 ) return secondcount == 2 ? 2 : 1;
 			
-			// if we have nothing special, we might at least make one pair if we have
-			// one joker (more jokers would have given us 3 of a kind or higher)
-			if( jokers > 0 ) return 1;
+		// if we have nothing special, we might at least make one pair if we have
+		// one joker (more jokers would have given us 3 of a kind or higher)
+		if( jokers > 0 ) return 1;
 			
-			// nothing special, simply use value of the cards
-			return 0;
-		}
+		// nothing special, simply use value of the cards
+		return 0;
+	}
 		
-		/**
-		 * Converts the card face value into a numerical ordering value
-		 * 
-		 * @param card The card face
-		 * @return Its numerical value
-		 */
-		private int getCardValue( final char card ) {
-			switch( card ) {
-				case 'A': return 14;
-				case 'K': return 13;
-				case 'Q': return 12;
-				// if jokers are used, the Jack becomes a 'worthless' joker
-				case 'J': return useJokers ? 0 : 11; 
-				case 'T': return 10;
-				default: return (card - '2') + 2;
-			}
-		}
-
-		/**
-		 * Compares two hands on their hand value, carefully constructed to
-		 * enable sorting on winning value.
-		 * 
-		 * @param o The other hand to compare against
-		 * @return The integer value that reflect the difference between o.value
-		 *   and the value of this hand
-		 */
-		@Override
-		public int compareTo( final CCHand o ) {
-			return Long.compare( value, o.value );
+	/**
+	 * Converts the card face value into a numerical ordering value
+	 * 
+	 * @param card The card face
+	 * @param useJokers True if the 'J' should be considered a joker
+	 * @return Its numerical value
+	 */
+	protected static int getCardValue( final char card, final boolean useJokers ) {
+		switch( card ) {
+			case 'A': return 14;
+			case 'K': return 13;
+			case 'Q': return 12;
+			// if jokers are used, the Jack becomes a 'worthless' joker
+			case 'J': return useJokers ? 0 : 11; 
+			case 'T': return 10;
+			default: return (card - '2') + 2;
 		}
 	}
-
 }
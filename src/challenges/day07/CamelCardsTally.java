@@ -0,0 +1,267 @@
+package challenges.day07;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming tally of a CamelCards tournament. Instead of holding all hands in
+ * memory, the tally only keeps a frequency count and bid sum per possible
+ * hand. As the type of a hand follows from its cards, the domain is that of
+ * the 13^5 card combinations, ordered by hand value. The total winnings are
+ * kept up to date as hands arrive, using prefix sums over this domain, so the
+ * hands never need to be sorted. The tally additionally answers rank and
+ * top-k queries over all hands that have been fed to it so far.
+ * 
+ * @author Joris
+ */
+public class CamelCardsTally {
+	/** The number of distinct card faces */
+	private static final int FACES = 13;
+	
+	/** The number of hand types */
+	private static final int TYPES = 7;
+	
+	/** The number of distinct card combinations in a single hand */
+	private static final int COMBINATIONS = (int)Math.pow( FACES, CamelCards.HAND_SIZE );
+	
+	/** The order of card combinations by hand value, with and without jokers */
+	private static final ValueOrder[] ORDERS = new ValueOrder[ 2 ];
+	
+	/** The order of card combinations by hand value for this game */
+	private final ValueOrder order;
+	
+	/** The number of hands seen per position in the value order */
+	private final int[] counts;
+	
+	/** Fenwick tree over the counts to support rank queries */
+	private final long[] ranktree;
+	
+	/** Fenwick tree over the bid sums per position in the value order */
+	private final long[] bidtree;
+	
+	/** The total number of hands in the tally */
+	private long size;
+	
+	/** The sum of all bids in the tally */
+	private long bidsum;
+	
+	/** The total winnings of the hands in the tally */
+	private long winnings;
+	
+	/**
+	 * Creates a new, empty tally for a game of CamelCards
+	 * 
+	 * @param useJokers True to use jokers
+	 */
+	public CamelCardsTally( final boolean useJokers ) {
+		this.order = getValueOrder( useJokers );
+		
+		counts = new int[ COMBINATIONS ];
+		ranktree = new long[ COMBINATIONS + 1 ];
+		bidtree = new long[ COMBINATIONS + 1 ];
+		size = 0;
+		bidsum = 0;
+		winnings = 0;
+	}
+	
+	/**
+	 * Adds a single hand to the tally
+	 * 
+	 * @param cards The 5 cards in this hand
+	 * @param bid The bid associated with the hand for scoring purposes
+	 */
+	public void addHand( final String cards, final int bid ) {
+		final int idx = getIndex( cards );
+		
+		// equal hands are ranked on order of arrival, hence the new hand is
+		// ranked directly after all weaker and equal hands. Every stronger hand
+		// moves up one rank, which adds their bids to the winnings
+		final long rank = getRank( idx + 1 );
+		winnings += rank * bid + bidsum - prefixSum( bidtree, idx + 1 );
+		
+		counts[ idx ]++;
+		size++;
+		bidsum += bid;
+		for( int i = idx + 1; i < ranktree.length; i += i & -i ) {
+			ranktree[i]++;
+			bidtree[i] += bid;
+		}
+	}
+	
+	/**
+	 * Processes a line of input that describes a hand and its bid
+	 * 
+	 * @param input The hand and its bid, separated by a space
+	 */
+	public void addHand( final String input ) {
+		final int split = input.indexOf( ' ' );
+		addHand( input.substring( 0, split ), Integer.parseInt( input.substring( split + 1 ) ) );
+	}
+	
+	/** @return The number of hands in the tally */
+	public long size( ) {
+		return size;
+	}
+	
+	/**
+	 * Returns the total winnings of all hands in the tally, which are kept up
+	 * to date as hands are added
+	 * 
+	 * @return The sum of winnings
+	 */
+	public long getTotalWinnings( ) {
+		return winnings;
+	}
+	
+	/**
+	 * Determines the rank of the given hand, i.e., the rank the first of such
+	 * hands is given in the tournament. If the hand was not played before, this
+	 * is the rank it would get if it would be added.
+	 * 
+	 * @param cards The hand of cards
+	 * @return The rank of the hand, starting at 1 for the weakest hand
+	 */
+	public long getRank( final String cards ) {
+		return getRank( getIndex( cards ) );
+	}
+	
+	/**
+	 * Determines the rank of the first hand at the given position in the value
+	 * order, as if it were added to the tally
+	 * 
+	 * @param index The position in the value order
+	 * @return The rank, starting at 1 for the weakest hand
+	 */
+	private long getRank( final int index ) {
+		return prefixSum( ranktree, index ) + 1;
+	}
+	
+	/**
+	 * Computes a prefix sum over a Fenwick tree
+	 * 
+	 * @param tree The Fenwick tree
+	 * @param index The number of positions to sum over
+	 * @return The sum over all positions before the index
+	 */
+	private static long prefixSum( final long[] tree, final int index ) {
+		long sum = 0;
+		for( int i = index; i > 0; i -= i & -i ) sum += tree[i];
+		return sum;
+	}
+	
+	/**
+	 * Returns the strongest hands in the tally
+	 * 
+	 * @param k The number of hands to return
+	 * @return The list of at most k strongest hands, in decreasing order of
+	 *   value. Equal hands are repeated as often as they were added
+	 */
+	public List<String> getTopHands( final int k ) {
+		final List<String> top = new ArrayList<>( (int)Math.min( k, size ) );
+		for( int i = counts.length - 1; i >= 0 && top.size( ) < k; i-- ) {
+			if( counts[i] == 0 ) continue;
+			
+			final String hand = getHand( i );
+			for( int j = 0; j < counts[i] && top.size( ) < k; j++ ) top.add( hand );
+		}
+		return top;
+	}
+	
+	/**
+	 * Maps a hand onto its position in the value order of all card combinations
+	 * 
+	 * @param cards The cards of the hand
+	 * @return The position of the hand in the value order
+	 */
+	private int getIndex( final String cards ) {
+		if( cards.length( ) != CamelCards.HAND_SIZE ) throw new RuntimeException( "Invalid hand: " + cards );
+		
+		int idx = 0;
+		for( int i = 0; i < CamelCards.HAND_SIZE; i++ ) {
+			final int face = order.faces.indexOf( cards.charAt( i ) );
+			if( face < 0 ) throw new RuntimeException( "Invalid card in hand: " + cards );
+			idx = idx * FACES + face;
+		}
+		return order.positions[ idx ];
+	}
+	
+	/**
+	 * Reconstructs the hand of cards from its position in the value order
+	 * 
+	 * @param index The position of the hand in the value order
+	 * @return The hand of cards
+	 */
+	private String getHand( final int index ) {
+		final char[] hand = new char[ CamelCards.HAND_SIZE ];
+		int idx = order.combinations[ index ];
+		for( int i = hand.length - 1; i >= 0; i-- ) {
+			hand[i] = order.faces.charAt( idx % FACES );
+			idx /= FACES;
+		}
+		return new String( hand );
+	}
+	
+	/**
+	 * Returns the value order of all card combinations, which is computed only
+	 * once per use of jokers and shared by all tallies
+	 * 
+	 * @param useJokers True to use jokers
+	 * @return The value order
+	 */
+	private static synchronized ValueOrder getValueOrder( final boolean useJokers ) {
+		final int i = useJokers ? 1 : 0;
+		if( ORDERS[i] == null ) ORDERS[i] = new ValueOrder( useJokers );
+		return ORDERS[i];
+	}
+	
+	/**
+	 * The order of all card combinations by their hand value. A combination is
+	 * identified by its card faces as base 13 digits, which already orders the
+	 * combinations of a single hand type. The hand type follows from the cards,
+	 * hence the combinations are ordered by a counting sort on their type.
+	 * 
+	 * @author Joris
+	 */
+	private static class ValueOrder {
+		/** The card faces ordered by their value */
+		protected final String faces;
+		
+		/** The position in the value order per card combination */
+		protected final int[] positions;
+		
+		/** The card combination per position in the value order */
+		protected final int[] combinations;
+		
+		/**
+		 * Computes the value order of all card combinations
+		 * 
+		 * @param useJokers True to use jokers
+		 */
+		protected ValueOrder( final boolean useJokers ) {
+			faces = useJokers ? "J23456789TQKA" : "23456789TJQKA";
+			
+			// determine the type of every combination
+			final int[] types = new int[ COMBINATIONS ];
+			final int[] start = new int[ TYPES + 1 ];
+			final char[] hand = new char[ CamelCards.HAND_SIZE ];
+			for( int c = 0; c < COMBINATIONS; c++ ) {
+				int idx = c;
+				for( int i = hand.length - 1; i >= 0; i-- ) {
+					hand[i] = faces.charAt( idx % FACES );
+					idx /= FACES;
+				}
+				types[c] = CamelCards.encodeHand( new String( hand ), useJokers ) >>> (CamelCards.HAND_SIZE * CamelCards.CARD_BITS);
+				start[ types[c] + 1 ]++;
+			}
+			for( int t = 0; t < TYPES; t++ ) start[t + 1] += start[t];
+			
+			// and place the combinations in order of type, then cards
+			positions = new int[ COMBINATIONS ];
+			combinations = new int[ COMBINATIONS ];
+			for( int c = 0; c < COMBINATIONS; c++ ) {
+				positions[c] = start[ types[c] ]++;
+				combinations[ positions[c] ] = c;
+			}
+		}
+	}
+}
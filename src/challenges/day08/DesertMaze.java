@@ -1,12 +1,15 @@
 package challenges.day08;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import aocutil.number.NumberUtil;
 import aocutil.string.RegexMatcher;
 
 /**
@@ -16,14 +19,43 @@ import aocutil.string.RegexMatcher;
  * @author Joris
  */
 public class DesertMaze {
-	/** The nodes in the desert */
-	protected final Map<String, String[]> nodes;
+	/** The maximum number of doublings in the jump table, i.e., we give up
+	 *  after 2^MAX_LEVELS full passes over the move list */
+	private static final int MAX_LEVELS = 32;
+	
+	/** The maximum number of joint ending residues that are materialised when
+	 *  combining the cycles of ghosts */
+	private static final int MAX_RESIDUES = 1 << 16;
+	
+	/** The mapping of node names to their integer ID */
+	protected final Map<String, Integer> ids;
+	
+	/** The node names, indexed by their ID */
+	protected final String[] names;
+	
+	/** The ID of the node reached by going left, per node ID */
+	protected final int[] left;
+	
+	/** The ID of the node reached by going right, per node ID */
+	protected final int[] right;
+	
+	/** The jump tables that have been built, per move list */
+	private final Map<String, JumpTable> jumptables = new ConcurrentHashMap<>( );
 
 	/**
-	 * Creates a new and empty desert maze
+	 * Creates a new desert maze from its compiled node arrays
+	 * 
+	 * @param names The node names, indexed by node ID
+	 * @param left The left path of every node
+	 * @param right The right path of every node
 	 */
-	private DesertMaze( ) {
-		nodes = new HashMap<>( );
+	private DesertMaze( final String[] names, final int[] left, final int[] right ) {
+		this.names = names;
+		this.left = left;
+		this.right = right;
+		
+		ids = new HashMap<>( names.length );
+		for( int i = 0; i < names.length; i++ ) ids.put( names[i], i );
 	}
 		
 	/**
@@ -44,34 +76,102 @@ public class DesertMaze {
 	 * (ending with 'A') at the same time, until we are in ending positions
 	 * (ending with 'Z') SIMULTANEOUSLY.
 	 * 
+	 * For every ghost the navigation is eventually periodic in its state, i.e.,
+	 * the combination of node and index in the move list. Hence, we determine
+	 * the tail and cycle of every ghost and all times at which it visits an
+	 * ending position within them. These are then combined over all ghosts to
+	 * find the first time at which they all are in an ending position.
+	 * 
+	 * The ghosts are combined in increasing order of the number of ending
+	 * positions in their cycle. Combining two ghosts yields at most the product
+	 * of their number of residues, which are computed as BigInteger as the
+	 * joint period quickly exceeds the range of a long. If the number of
+	 * residues to combine exceeds MAX_RESIDUES, or the first joint ending time
+	 * does not fit in a long, an exception is thrown. For mazes in which every
+	 * ghost visits a single ending position per cycle there is only a single
+	 * residue throughout.
+	 * 
 	 * @param moves The move set to navigate the desert
 	 * @return The number of steps required to end up in all ending positions
 	 *   at the same time.
 	 */
 	public long navigateGhostly( final String moves ) {
 		// determine all starting and ending positions
-		final Set<String> starts = new HashSet<>( );
-		final Set<String> ends = new HashSet<>( );
-		for( final String n : nodes.keySet( ) ) {
-			if( n.endsWith( "A" ) ) starts.add( n );
-			if( n.endsWith( "Z" ) ) ends.add( n );
+		final List<Integer> starts = new ArrayList<>( );
+		final boolean[] isend = new boolean[ names.length ];
+		for( int i = 0; i < names.length; i++ ) {
+			if( names[i].endsWith( "A" ) ) starts.add( i );
+			if( names[i].endsWith( "Z" ) ) isend[i] = true;
+		}
+		
+		// analyse the cycle of every ghost, they are independent so we can do so
+		// in parallel
+		final List<GhostCycle> ghosts = starts.parallelStream( ).map( s -> new GhostCycle( s, moves, isend ) ).toList( );
+		if( ghosts.isEmpty( ) ) return 0;
+		
+		// first check if the ghosts meet before all of them are in their cycle.
+		// Simply check every ending time of the first ghost against the others
+		final long M = ghosts.stream( ).mapToLong( g -> g.tail ).max( ).getAsLong( );
+		final GhostCycle G0 = ghosts.get( 0 );
+		for( final long t : G0.getEndTimes( M ) )
+			if( ghosts.stream( ).allMatch( g -> g.isEndTime( t ) ) ) return t;
+		
+		// no luck, all ghosts are in their cycle from time M onwards. Combine the
+		// ending times of the ghosts modulo their cycle lengths into the residues
+		// of joint ending times, using generalised CRT, starting with the ghosts
+		// that have the fewest ending times in their cycle
+		final List<GhostCycle> sorted = new ArrayList<>( ghosts );
+		sorted.sort( (g1, g2) -> Integer.compare( g1.cyclehits.length, g2.cyclehits.length ) );
+		Set<BigInteger> residues = new HashSet<>( );
+		BigInteger modulus = BigInteger.valueOf( sorted.get( 0 ).period );
+		for( final long c : sorted.get( 0 ).cyclehits ) residues.add( BigInteger.valueOf( c ).mod( modulus ) );
+		for( final GhostCycle g : sorted.subList( 1, sorted.size( ) ) ) {
+			if( (long)residues.size( ) * g.cyclehits.length > MAX_RESIDUES ) throw new RuntimeException( "The ghosts have too many combinations of ending times to combine (more than " + MAX_RESIDUES + ")" );
+			
+			final BigInteger period = BigInteger.valueOf( g.period );
+			final Set<BigInteger> combined = new HashSet<>( );
+			for( final BigInteger r : residues ) {
+				for( final long c : g.cyclehits ) {
+					final BigInteger x = crt( r, modulus, BigInteger.valueOf( c ).mod( period ), period );
+					if( x != null ) combined.add( x );
+				}		
+			}
+			residues = combined;
+			modulus = modulus.divide( modulus.gcd( period ) ).multiply( period );
 		}
+		if( residues.isEmpty( ) ) throw new RuntimeException( "The ghosts never end up in ending positions simultaneously" );
+		
+		// return the first time at or after M that matches any of the residues
+		final BigInteger start = BigInteger.valueOf( Math.max( M, 1 ) );
+		BigInteger first = null;
+		for( final BigInteger r : residues ) {
+			final BigInteger t = r.compareTo( start ) >= 0 ? r : r.add( start.subtract( r ).add( modulus ).subtract( BigInteger.ONE ).divide( modulus ).multiply( modulus ) );
+			if( first == null || t.compareTo( first ) < 0 ) first = t;
+		}
+		if( first.bitLength( ) >= Long.SIZE ) throw new RuntimeException( "The ghosts only end up in ending positions simultaneously after " + first + " steps, which exceeds the range of a long" );
+		return first.longValue( );
+	}
+	
+	/**
+	 * Solves the system of congruences x = a (mod m) and x = b (mod n) using the
+	 * generalised Chinese Remainder Theorem, i.e., m and n need not be coprime
+	 * 
+	 * @param a The first residue
+	 * @param m The first modulus
+	 * @param b The second residue
+	 * @param n The second modulus
+	 * @return The smallest non-negative solution x, which is unique modulo
+	 *   lcm(m, n), or null if the system has no solution
+	 */
+	private static BigInteger crt( final BigInteger a, final BigInteger m, final BigInteger b, final BigInteger n ) {
+		final BigInteger g = m.gcd( n );
+		final BigInteger diff = b.subtract( a );
+		if( diff.mod( g ).signum( ) != 0 ) return null;
 		
-		// find the times at which each individual starting position ends in a Z
-		// state and then find their lowest common multiplier. That would be the
-		// first time that all ghosts end up in the same position
-		//
-		// N.B.: Manual inspection showed that the input was carefully constructed
-		// such that for every ghost the navigation is a perfect repetition from
-		// initial state to always the same, single end state. In other words, only
-		// the number of steps to reach the end state is required to determine
-		// their joint end state, not some complex interval function arithmetics.
-		long prod = 1;
-		for( final String s : starts ) {
-			final long f = navigate( s, ends, moves );
-			prod = NumberUtil.lowestCommonMultiplier( prod, f );
-		}		
-		return prod;
+		// x = a + m * k, with k = (b - a) / g * inv(m / g) mod (n / g)
+		final BigInteger ng = n.divide( g );
+		final BigInteger k = ng.equals( BigInteger.ONE ) ? BigInteger.ZERO : diff.divide( g ).multiply( m.divide( g ).modInverse( ng ) ).mod( ng );
+		return a.add( m.multiply( k ) ).mod( m.multiply( ng ) );
 	}
 	
 	/**
@@ -84,27 +184,54 @@ public class DesertMaze {
 	 * @return The number of steps needed to reach any of the terminal states
 	 */
 	public long navigate( final String start, final Set<String> ends, final String moves ) {
-		// initiate search
-		long steps = 0;
-		int cidx = 0;
-		String curr = start;
-		
-		// keep going until we end up in a end state or we've exhausted our patience
-		while( steps < 1000000000l ) {
-			// use next character for navigation, wrap index around if no more length
-			char n = moves.charAt( cidx );
-			cidx = (cidx + 1) % moves.length( );
-
-			// use the move to go the next node
-			curr = nodes.get( curr )[ n == 'L' ? 0 : 1 ];
-			steps++;
-
-			// are we there yet?
-			if( ends.contains( curr ) ) return steps;
-		}
+		return getJumpTable( moves ).stepsToEnd( getID( start ), ends );
+	}
 		
-		// no end state found after a lot of tries? just give up already!
-		throw new RuntimeException( "Failed to reach any of the ending states " + ends + " from starting state " + start );
+	/**
+	 * Determines the position we end up in after performing the given number of
+	 * steps from the start position
+	 * 
+	 * @param start The start position
+	 * @param moves The moves to perform to navigate the desert
+	 * @param steps The number of steps to take
+	 * @return The name of the node we are in after the given number of steps
+	 */
+	public String getPosition( final String start, final String moves, final long steps ) {
+		return names[ getJumpTable( moves ).getPosition( getID( start ), steps ) ];
+	}
+	
+	/**
+	 * Returns the jump table for the given moves, which is only built the first
+	 * time it is needed
+	 * 
+	 * @param moves The moves that are repeated to navigate the desert
+	 * @return The jump table
+	 */
+	private JumpTable getJumpTable( final String moves ) {
+		return jumptables.computeIfAbsent( moves, m -> new JumpTable( m ) );
+	}
+	
+	/**
+	 * Looks up the ID of a node
+	 * 
+	 * @param node The node name
+	 * @return The ID of the node
+	 */
+	private int getID( final String node ) {
+		final Integer id = ids.get( node );
+		if( id == null ) throw new RuntimeException( "Unknown node: " + node );
+		return id;
+	}
+	
+	/**
+	 * Performs a single step from the given node
+	 * 
+	 * @param node The current node ID
+	 * @param move The move to perform, 'L' or 'R'
+	 * @return The ID of the node we end up in
+	 */
+	protected int step( final int node, final char move ) {
+		return move == 'L' ? left[ node ] : right[ node ];
 	}
 
 	/**
@@ -114,14 +241,292 @@ public class DesertMaze {
 	 * @return The DesertMaze
 	 */
 	public static DesertMaze fromStringList( final List<String> input ){
-		final DesertMaze DM = new DesertMaze( );
+		final Map<String, Integer> ids = new HashMap<>( );
+		final List<String> names = new ArrayList<>( );
+		final List<String[]> paths = new ArrayList<>( input.size( ) );
 		
-		// process all nodes and paths
+		// process all nodes and paths, assigning an ID to every node
 		for( final String i : input ) {
 			final RegexMatcher rm = RegexMatcher.match( "([A-Z0-9]{3}) = \\(([A-Z0-9]{3}), ([A-Z0-9]{3})\\)", i );
-			DM.nodes.put( rm.get( 1 ), new String[] { rm.get( 2 ), rm.get( 3 ) } );
+			final String[] p = new String[] { rm.get( 1 ), rm.get( 2 ), rm.get( 3 ) };
+			for( final String n : p )
+				if( !ids.containsKey( n ) ) {
+					ids.put( n, names.size( ) );
+					names.add( n );
+				}
+			paths.add( p );
+		}
+
+		// then compile the paths into arrays of node IDs. Nodes without outgoing
+		// paths are simply dead ends that point to themselves
+		final int[] left = new int[ names.size( ) ];
+		final int[] right = new int[ names.size( ) ];
+		for( int i = 0; i < left.length; i++ ) left[i] = right[i] = i;
+		for( final String[] p : paths ) {
+			final int id = ids.get( p[0] );
+			left[ id ] = ids.get( p[1] );
+			right[ id ] = ids.get( p[2] );
+		}
+		
+		return new DesertMaze( names.toArray( new String[0] ), left, right );
+	}
+	
+	/**
+	 * The cycle analysis of a single ghost. The state of a ghost is given by its
+	 * node and the index in the move list, which is eventually periodic. Using
+	 * Brent's algorithm, the length of the tail (steps before entering the
+	 * cycle) and the period of the cycle are determined without storing any of
+	 * the visited states. Then all times at which the ghost is in an ending
+	 * position are recorded within the tail and the first pass over the cycle.
+	 * 
+	 * @author Joris
+	 */
+	private class GhostCycle {
+		/** The moves of the navigation */
+		protected final String moves;
+		
+		/** The number of steps before the ghost enters its cycle */
+		protected final long tail;
+		
+		/** The length of the cycle */
+		protected final long period;
+		
+		/** The times within the tail at which the ghost is in an end state */
+		protected final long[] tailhits;
+		
+		/** The times within the first pass over the cycle, i.e., in the interval
+		 *  [tail, tail + period), at which the ghost is in an end state */
+		protected final long[] cyclehits;
+		
+		/**
+		 * Analyses the cycle of the ghost starting at the given node
+		 * 
+		 * @param start The ID of the starting node
+		 * @param moves The moves used to navigate
+		 * @param isend Flags that indicate whether a node is an end state
+		 */
+		protected GhostCycle( final int start, final String moves, final boolean[] isend ) {
+			this.moves = moves;
+			final long x0 = (long)start * moves.length( );
+			
+			// find the period using Brent's algorithm
+			long power = 1, lambda = 1;
+			long tortoise = x0;
+			long hare = next( x0 );
+			while( tortoise != hare ) {
+				if( power == lambda ) {
+					tortoise = hare;
+					power *= 2;
+					lambda = 0;
+				}
+				hare = next( hare );
+				lambda++;
+			}
+			period = lambda;
+			
+			// and the length of the tail by running two pointers that are exactly
+			// one period apart until they meet
+			tortoise = hare = x0;
+			for( long i = 0; i < lambda; i++ ) hare = next( hare );
+			long mu = 0;
+			while( tortoise != hare ) {
+				tortoise = next( tortoise );
+				hare = next( hare );
+				mu++;
+			}
+			tail = mu;
+			
+			// then record all the times at which we are in an ending position. Time
+			// zero is only relevant as part of the cycle as we then already moved
+			final List<Long> th = new ArrayList<>( );
+			final List<Long> ch = new ArrayList<>( );
+			long state = x0;
+			for( long t = 0; t < tail + period; t++ ) {
+				if( isend[ (int)(state / moves.length( )) ] ) {
+					if( t >= tail ) ch.add( t );
+					else if( t > 0 ) th.add( t );
+				}
+				state = next( state );
+			}
+			tailhits = th.stream( ).mapToLong( x -> x ).toArray( );
+			cyclehits = ch.stream( ).mapToLong( x -> x ).toArray( );
+			if( tailhits.length == 0 && cyclehits.length == 0 )
+				throw new RuntimeException( "Failed to reach any of the ending states from starting state " + names[ start ] );
+		}
+		
+		/**
+		 * Computes the next state of the ghost
+		 * 
+		 * @param state The current state, encoded as node * #moves + move index
+		 * @return The next state
+		 */
+		private long next( final long state ) {
+			final int L = moves.length( );
+			final int node = (int)(state / L);
+			final int idx = (int)(state % L);
+			return (long)step( node, moves.charAt( idx ) ) * L + (idx + 1) % L;
+		}
+		
+		/**
+		 * Checks whether the ghost is in an ending position at the given time
+		 * 
+		 * @param t The time
+		 * @return True iff the ghost is in an end state after t steps
+		 */
+		protected boolean isEndTime( final long t ) {
+			if( t < tail ) return Arrays.binarySearch( tailhits, t ) >= 0;
+			return Arrays.binarySearch( cyclehits, tail + (t - tail) % period ) >= 0;
+		}
+		
+		/**
+		 * Lists all the times before the given bound at which the ghost is in an
+		 * ending position
+		 * 
+		 * @param bound The (exclusive) upper bound on the time
+		 * @return The ordered list of times at which the ghost is in an end state
+		 */
+		protected List<Long> getEndTimes( final long bound ) {
+			final List<Long> T = new ArrayList<>( );
+			for( final long t : tailhits ) if( t < bound ) T.add( t );
+			for( long base = 0; tail + base < bound; base += period )
+				for( final long c : cyclehits ) if( c + base < bound && c + base > 0 ) T.add( c + base );
+			return T;
+		}
+	}
+	
+	/**
+	 * Jump table that captures the effect of performing a full cycle of moves
+	 * from every node. Using binary lifting, it stores for every node where we
+	 * end up after 2^k cycles. For every set of end states that is queried,
+	 * it additionally stores whether an end state was visited along the way.
+	 * After this preprocessing, both position and first arrival queries take
+	 * O(log N) cycle jumps, followed by at most one cycle of single steps.
+	 * 
+	 * @author Joris
+	 */
+	private class JumpTable {
+		/** The moves of a single cycle */
+		protected final String moves;
+		
+		/** The node reached after 2^k cycles, per level k and node */
+		protected final int[][] jump;
+		
+		/** The arrival tables that have been built, per set of end states */
+		private final Map<Set<String>, Arrivals> arrivals = new ConcurrentHashMap<>( );
+		
+		/**
+		 * Builds the jump table for the given move cycle
+		 * 
+		 * @param moves The moves that are repeated to navigate the desert
+		 */
+		protected JumpTable( final String moves ) {
+			this.moves = moves;
+			final int N = names.length;
+			
+			// simulate a single cycle from every node
+			jump = new int[ MAX_LEVELS + 1 ][ N ];
+			for( int n = 0; n < N; n++ ) {
+				int curr = n;
+				for( int i = 0; i < moves.length( ); i++ ) curr = step( curr, moves.charAt( i ) );
+				jump[ 0 ][ n ] = curr;
+			}
+			
+			// and then double the number of cycles per level
+			for( int k = 1; k <= MAX_LEVELS; k++ )
+				for( int n = 0; n < N; n++ ) jump[ k ][ n ] = jump[ k - 1 ][ jump[ k - 1 ][ n ] ];
 		}
 
-		return DM;
+		/**
+		 * Determines the number of steps required to reach any end state from the
+		 * given start node
+		 * 
+		 * @param start The ID of the start node
+		 * @param ends The set of end states
+		 * @return The number of steps needed to reach the first end state
+		 */
+		protected long stepsToEnd( final int start, final Set<String> ends ) {
+			final Arrivals A = arrivals.computeIfAbsent( Set.copyOf( ends ), e -> new Arrivals( e ) );
+			
+			// skip as many full cycles as possible without visiting an end state
+			long cycles = 0;
+			int curr = start;
+			for( int k = MAX_LEVELS; k >= 0; k-- ) {
+				if( A.hits[ k ][ curr ] ) continue;
+				curr = jump[ k ][ curr ];
+				cycles += 1l << k;
+			}
+			
+			// no end state found after a lot of tries? just give up already!
+			if( A.firsthit[ curr ] == -1 )
+				throw new RuntimeException( "Failed to reach any of the ending states from starting state " + names[ start ] );
+			
+			// the end state is reached within the next cycle
+			return cycles * moves.length( ) + A.firsthit[ curr ];
+		}
+		
+		/**
+		 * Determines the node we end up in after the given number of steps
+		 * 
+		 * @param start The ID of the start node
+		 * @param steps The number of steps to perform
+		 * @return The node ID after the steps are performed
+		 */
+		protected int getPosition( final int start, final long steps ) {
+			final long cycles = steps / moves.length( );
+			if( cycles >= 1l << (MAX_LEVELS + 1) ) throw new RuntimeException( "Number of steps too large: " + steps );
+			
+			// jump over all full cycles
+			int curr = start;
+			for( int k = 0; k <= MAX_LEVELS; k++ )
+				if( (cycles & (1l << k)) != 0 ) curr = jump[ k ][ curr ];
+			
+			// and perform the remaining steps one by one
+			final int rem = (int)(steps % moves.length( ));
+			for( int i = 0; i < rem; i++ ) curr = step( curr, moves.charAt( i ) );
+			return curr;
+		}
+		
+		/**
+		 * Records for every node whether an end state is visited within 2^k
+		 * cycles, for a single set of end states
+		 * 
+		 * @author Joris
+		 */
+		private class Arrivals {
+			/** True if an end state is visited within 2^k cycles, per level and node */
+			protected final boolean[][] hits;
+			
+			/** The first step within a single cycle at which an end state is
+			 *  reached, or -1 if no end state is visited during the cycle */
+			protected final int[] firsthit;
+			
+			/**
+			 * Builds the arrival table for the given end states
+			 * 
+			 * @param ends The set of end states
+			 */
+			protected Arrivals( final Set<String> ends ) {
+				final int N = names.length;
+				final boolean[] isend = new boolean[ N ];
+				for( final String e : ends ) if( ids.containsKey( e ) ) isend[ ids.get( e ) ] = true;
+				
+				// find the first end state within a single cycle from every node
+				hits = new boolean[ MAX_LEVELS + 1 ][ N ];
+				firsthit = new int[ N ];
+				for( int n = 0; n < N; n++ ) {
+					int curr = n;
+					firsthit[ n ] = -1;
+					for( int i = 0; i < moves.length( ) && firsthit[ n ] == -1; i++ ) {
+						curr = step( curr, moves.charAt( i ) );
+						if( isend[ curr ] ) firsthit[ n ] = i + 1;
+					}
+					hits[ 0 ][ n ] = firsthit[ n ] != -1;
+				}
+				
+				// and combine them along the jumps of every level
+				for( int k = 1; k <= MAX_LEVELS; k++ )
+					for( int n = 0; n < N; n++ ) hits[ k ][ n ] = hits[ k - 1 ][ n ] || hits[ k - 1 ][ jump[ k - 1 ][ n ] ];
+			}
+		}
 	}
 }
@@ -1,6 +1,5 @@
 package challenges.day09;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -32,47 +31,58 @@ public class Day09 {
 	/**
 	 * Predicts the next or previous value of every series and sums these prediction
 	 * 
-	 * @param input
-	 * @return
+	 * @param input The list of series, one per line
+	 * @param forward True to extrapolate the next value, false to extrapolate
+	 *   backwards
+	 * @return The sum of extrapolated values for every series
 	 */
 	private static long predictValue( final List<String> input, final boolean forward ) {
 		return input.stream( )
 				// for every line, get next or preceding prediction
-				.mapToLong( s -> predict( Stream.of( s.split( " " ) ).mapToLong( Long::parseLong ).boxed( ).toList( ), forward ) )
+				.mapToLong( s -> extrapolate( Stream.of( s.split( " " ) ).mapToLong( Long::parseLong ).toArray( ) )[ forward ? 1 : 0 ] )
 				// and sum over them
 				.sum( );
 	}
 	
 	/**
-	 * Predicts the next or preceding value of the series
+	 * Predicts both the preceding and the next value of the series in a single
+	 * pass. The difference table is built in place, one level at a time, while
+	 * summing the last values of all levels for the forward prediction and the
+	 * alternating sum of their first values for the backward prediction. This
+	 * stops as soon as a level contains only zeroes.
+	 * 
+	 * N.B. The series is overwritten by the differences in the process
 	 * 
 	 * @param values The series
-	 * @param forward True to extrapolate the next value, false to extrapolate
-	 *   backwards
-	 * @return The sum of extrapolated values for every series
+	 * @return Pair of the extrapolated preceding and next value
+	 * @throws ArithmeticException if any of the differences or the predictions
+	 *   overflow
 	 */
-	private static long predict( final List<Long> values, final boolean forward ) {
-		// all zeroes? return 0 as next prediction
-		if( values.stream( ).filter( x -> x != 0 ).count( ) == 0 ) return 0;
+	private static long[] extrapolate( final long[] values ) {
+		long next = 0;
+		long prev = 0;
+		boolean add = true;
 		
-		// nope, predict the next value (or preceding one)
-		if( forward ) 
-			return values.get( values.size( ) - 1 ) + predict( difflist( values ), forward );
-		else
-			return values.get( 0 ) - predict( difflist( values ), forward );
-	}
+		try {
+			for( int len = values.length; len > 0; len-- ) {
+				// add the values of this level to the predictions
+				next = Math.addExact( next, values[ len - 1 ] );
+				prev = add ? Math.addExact( prev, values[0] ) : Math.subtractExact( prev, values[0] );
+				add = !add;
+				
+				// replace the level by its differences and stop if all are zero
+				boolean zeroes = true;
+				for( int i = 0; i < len - 1; i++ ) {
+					values[i] = Math.subtractExact( values[ i + 1 ], values[i] );
+					zeroes &= values[i] == 0;
+				}
+				if( zeroes ) break;
+			}
+		} catch( final ArithmeticException e ) {
+			throw new ArithmeticException( "Overflow while extrapolating series of length " + values.length );
+		}
 
-	/**
-	 * Builds a new series that contains the differences between every two
-	 * successive values in the input series
-	 * 
-	 * @param values The input series
-	 * @return A new series with size one smaller that contains the differences
-	 */
-	private static List<Long> difflist( final List<Long> values ) {
-		final List<Long> diff = new ArrayList<>( values.size( ) - 1 );
-		for( int i = 1; i < values.size( ); i++ ) diff.add( values.get( i ) - values.get( i - 1 ) );
-		return diff;		
+		return new long[] { prev, next };
 	}
 
 }
\ No newline at end of file
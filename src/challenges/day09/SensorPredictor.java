@@ -0,0 +1,92 @@
+package challenges.day09;
+
+import java.util.Arrays;
+
+/**
+ * Online predictor for the next value of a series of sensor readings. Instead
+ * of storing the full series, only the trailing edge of its difference table
+ * is maintained, i.e., the last value of every level of differences. Appending
+ * a reading updates every level in turn, after which the prediction is simply
+ * the sum of the trailing values. The levels from which all differences are
+ * zero do not have to be stored, hence the state and the work per reading are
+ * linear in the degree of the series rather than its length.
+ * 
+ * @author Joris
+ */
+public class SensorPredictor {
+	/** The last value of every level of the difference table */
+	private long[] edge;
+	
+	/** The level from which all differences are zero */
+	private int zerolevel;
+	
+	/** The number of readings seen so far */
+	private long count;
+	
+	/**
+	 * Creates a new predictor without any readings
+	 */
+	public SensorPredictor( ) {
+		edge = new long[ 4 ];
+		zerolevel = 0;
+		count = 0;
+	}
+	
+	/**
+	 * Appends a new reading to the series and updates the difference table
+	 * 
+	 * @param reading The sensor reading
+	 * @throws ArithmeticException if any of the differences overflows
+	 */
+	public void append( final long reading ) {
+		// update the trailing edge of all non-zero levels, the difference with the
+		// previous value of a level becomes the new value of the next level
+		long value = reading;
+		for( int k = 0; k < zerolevel; k++ ) {
+			final long diff = Math.subtractExact( value, edge[k] );
+			edge[k] = value;
+			value = diff;
+		}
+		count++;
+		
+		// does the new value introduce a non-zero difference in a level that was
+		// all zeroes? Then all levels up to the last one, which has just a single
+		// value, will now end with that same value as they were zero before. Note
+		// that there are at most as many non-zero levels as readings before this
+		// one, hence there is always at least one such level to fill
+		if( value == 0 ) return;
+		final int levels = (int)count;
+		if( levels > edge.length ) edge = Arrays.copyOf( edge, Math.max( levels, edge.length * 2 ) );
+		for( int k = zerolevel; k < levels; k++ ) edge[k] = value;
+		zerolevel = levels;
+	}
+	
+	/**
+	 * Predicts the next reading by extrapolating the difference table
+	 * 
+	 * @return The predicted value of the next reading
+	 * @throws ArithmeticException if the prediction overflows
+	 */
+	public long predict( ) {
+		long next = 0;
+		for( int k = 0; k < zerolevel; k++ ) next = Math.addExact( next, edge[k] );
+		return next;
+	}
+	
+	/** @return The number of readings seen so far */
+	public long size( ) {
+		return count;
+	}
+	
+	/** @return The degree of the series, i.e., the number of difference levels
+	 *   that are not all zero minus one. This is -1 if all readings are zero */
+	public int getDegree( ) {
+		return zerolevel - 1;
+	}
+	
+	/** @return The predictor state as a string */
+	@Override
+	public String toString( ) {
+		return "n=" + count + ", edge=" + Arrays.toString( Arrays.copyOf( edge, zerolevel ) );
+	}
+}
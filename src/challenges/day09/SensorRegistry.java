@@ -0,0 +1,69 @@
+package challenges.day09;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registry that keeps an online predictor for every sensor, identified by its
+ * ID, so that readings of multiple sensors can be processed as they arrive.
+ * 
+ * @author Joris
+ */
+public class SensorRegistry {
+	/** The predictors per sensor ID */
+	protected final Map<String, SensorPredictor> sensors;
+	
+	/**
+	 * Creates a new, empty registry
+	 */
+	public SensorRegistry( ) {
+		sensors = new HashMap<>( );
+	}
+	
+	/**
+	 * Records a new reading for the given sensor. If the sensor is not known
+	 * yet, a new predictor is created for it.
+	 * 
+	 * @param sensor The sensor ID
+	 * @param reading The value read from the sensor
+	 * @return The prediction of the next reading of the sensor
+	 */
+	public long record( final String sensor, final long reading ) {
+		final SensorPredictor P = sensors.computeIfAbsent( sensor, s -> new SensorPredictor( ) );
+		P.append( reading );
+		return P.predict( );
+	}
+	
+	/**
+	 * Predicts the next reading of a sensor
+	 * 
+	 * @param sensor The sensor ID
+	 * @return The prediction of the next reading of the sensor
+	 */
+	public long predict( final String sensor ) {
+		return getPredictor( sensor ).predict( );
+	}
+	
+	/**
+	 * Retrieves the predictor of a sensor
+	 * 
+	 * @param sensor The sensor ID
+	 * @return The predictor that is used for the sensor
+	 */
+	public SensorPredictor getPredictor( final String sensor ) {
+		final SensorPredictor P = sensors.get( sensor );
+		if( P == null ) throw new RuntimeException( "Unknown sensor: " + sensor );
+		return P;
+	}
+	
+	/** @return The set of IDs of all sensors that have recorded readings */
+	public Set<String> getSensors( ) {
+		return sensors.keySet( );
+	}
+	
+	/** @return The sum of predictions over all sensors */
+	public long predictAll( ) {
+		return sensors.values( ).stream( ).mapToLong( SensorPredictor::predict ).sum( );
+	}
+}
@@ -1,14 +1,15 @@
 package challenges.day10;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.stream.IntStream;
 
 import aocutil.geometry.Coord2D;
-import aocutil.geometry.Direction;
 import aocutil.geometry.Window2D;
 import aocutil.grid.CoordGrid;
 
@@ -18,33 +19,113 @@ import aocutil.grid.CoordGrid;
  * @author Joris
  */
 public class PipeMaze {
-	/** The maze grid */
-	protected final CoordGrid<Character> maze;
+	/** The maze grid, only built when it is needed by the flood fill */
+	protected CoordGrid<Character> maze;
 	
 	/** The starting point in the maze */
 	protected final Coord2D start;
+	
+	/** The width of the maze */
+	protected final int width;
+	
+	/** The height of the maze */
+	protected final int height;
+	
+	/** The maze as array of pipe connection bitmasks, indexed by y * width + x */
+	protected final byte[] pipes;
+	
+	/** Bits that encode the connections of a pipe piece */
+	private static final int N = 1, E = 2, S = 4, W = 8;
+	
+	/** The connection bitmask of every pipe piece character */
+	private static final byte[] CONNECTIONS = new byte[ 128 ];
+	static {
+		CONNECTIONS[ '|' ] = N | S;
+		CONNECTIONS[ '-' ] = E | W;
+		CONNECTIONS[ 'L' ] = N | E;
+		CONNECTIONS[ 'J' ] = N | W;
+		CONNECTIONS[ '7' ] = S | W;
+		CONNECTIONS[ 'F' ] = S | E;
+	}
 
+	/** The pipe piece character of every connection bitmask */
+	private static final char[] PIECES = new char[ 16 ];
+	static {
+		Arrays.fill( PIECES, '.' );
+		for( final char ch : "|-LJ7F".toCharArray( ) ) PIECES[ CONNECTIONS[ ch ] ] = ch;
+	}
+	
+	/** The pipes that the start tile can be, in order of preference if it is
+	 *  connected to more than two of its neighbours. If none fits, the start
+	 *  is a vertical pipe */
+	private static final int[] START_PIPES = { N | W, S | W, N | E, S | E, E | W };
+	
 	/**
 	 * Constructs a new maze from a textual input
 	 *  
 	 * @param input The maze grid layout as string list
 	 */
 	public PipeMaze( final List<String> input ) {
-		// first parse textual maze into a grid
-		this.maze = CoordGrid.fromCharGrid( input, '.' );
-
-		// replace start by its original pipe
-		start = maze.getEntries( ).stream( ).filter( e -> e.getValue( ) == 'S' ).findAny( ).get( ).getKey( );
-
-		// then replace the start tile with its original pipe
-		final char startchar;
-		if( canMove( start, Direction.West ) && canMove( start, Direction.North ) ) startchar = 'J';
-		else if( canMove( start, Direction.West ) && canMove( start, Direction.South ) ) startchar = '7';
-		else if( canMove( start, Direction.East ) && canMove( start, Direction.North ) ) startchar = 'L';
-		else if( canMove( start, Direction.East ) && canMove( start, Direction.South ) ) startchar = 'F';
-		else if( canMove( start, Direction.West ) && canMove( start, Direction.East ) ) startchar = '-';
-		else startchar = '|';
-		maze.set( start, startchar );
+		// store the maze as a compact array of connection bitmasks and find the
+		// starting position while doing so
+		height = input.size( );
+		width = input.get( 0 ).length( );
+		pipes = new byte[ width * height ];
+		int startidx = -1;
+		for( int y = 0; y < height; y++ ) {
+			final String line = input.get( y );
+			for( int x = 0; x < width; x++ ) {
+				final char ch = line.charAt( x );
+				if( ch == 'S' ) startidx = y * width + x;
+				pipes[ y * width + x ] = CONNECTIONS[ ch & 0x7F ];
+			}
+		}
+		if( startidx < 0 ) throw new RuntimeException( "The maze has no starting position" );
+		start = new Coord2D( startidx % width, startidx / width );
+		
+		// then replace the start tile with its original pipe, i.e., the pipe that
+		// connects to the neighbours that connect back to the start
+		final int conn = getStartConnections( startidx );
+		int startpipe = N | S;
+		for( final int p : START_PIPES ) {
+			if( (conn & p) != p ) continue;
+			startpipe = p;
+			break;
+		}
+		pipes[ startidx ] = (byte)startpipe;
+	}
+	
+	/**
+	 * Returns the maze as a grid of pipe characters, which is built from the
+	 * pipe connections on first use. Tiles without pipe are left empty.
+	 * 
+	 * @return The maze grid
+	 */
+	protected CoordGrid<Character> getGrid( ) {
+		if( maze == null ) {
+			maze = new CoordGrid<Character>( '.' );
+			for( int idx = 0; idx < pipes.length; idx++ )
+				if( pipes[ idx ] != 0 ) maze.set( new Coord2D( idx % width, idx / width ), PIECES[ pipes[ idx ] ] );
+			maze.fixWindow( new Coord2D( 0, 0 ), new Coord2D( width - 1, height - 1 ) );
+		}
+		return maze;
+	}
+	
+	/**
+	 * Determines the directions in which the start tile is connected to its
+	 * neighbours, i.e., the neighbours that have a connection back to it
+	 * 
+	 * @param idx The index of the start tile
+	 * @return The bitmask of directions with a neighbour that connects back
+	 */
+	private int getStartConnections( final int idx ) {
+		final int x = idx % width;
+		int conn = 0;
+		if( idx >= width && (pipes[ idx - width ] & S) != 0 ) conn |= N;
+		if( x < width - 1 && (pipes[ idx + 1 ] & W) != 0 ) conn |= E;
+		if( idx + width < pipes.length && (pipes[ idx + width ] & N) != 0 ) conn |= S;
+		if( x > 0 && (pipes[ idx - 1 ] & E) != 0 ) conn |= W;
+		return conn;
 	}
 	
 	/**
@@ -55,85 +136,71 @@ public class PipeMaze {
 	 *   loop
 	 */
 	public long findFarthestPoint( ) {
-		return getLoopDistances( ).values( ).stream( ).mapToInt( x -> x ).max( ).getAsInt( );
+		// the loop is a simple cycle, so the farthest point is halfway
+		return traceLoop( ).length / 2;
 	} 
 
 	/**
-	 * Build a map of all pipes that are part of the main loop and their
-	 * travel distance from the maze starting position
+	 * Traces the main loop by following the pipes from the starting position
+	 * until we are back at the start. The loop is a simple cycle, hence there
+	 * is exactly one way to continue from every pipe: leave it via the
+	 * connection that we did not enter it from.
 	 * 
-	 * @return The map of main pipe parts and their distances from start in
-	 *   number of pipes traversed
+	 * @return The cells of the main loop in order of traversal, starting with
+	 *   the start cell, as indices y * width + x
 	 */
-	private Map<Coord2D, Integer> getLoopDistances( ) {
-		// do a breadth-first search to find farthest point from here
-		final Map<Coord2D, Integer> visited = new HashMap<>( );
-		final Stack<Coord2D> curr = new Stack<>( );
-		curr.push( start );
-		visited.put( start, 0 );
-		int dist = 0;
+	protected int[] traceLoop( ) {
+		final int startidx = start.y * width + start.x;
 		
-		// keep traversing the pipes until no new coordinates are found
-		while( !curr.empty( ) ) {
-			final Set<Coord2D> next = new HashSet<>( );
-			dist++;
-			
-			while( !curr.empty( ) ) {
-				// check next moves from this one
-				final Coord2D c = curr.pop( );				
-				for( final Coord2D nc : getNextPipes( c ) ) {
-					// already visited?
-					if( visited.containsKey( nc ) ) continue;
-					
-					// nope, add it to the list for next round and store the distance to it
-					next.add( nc );
-					visited.put( nc, dist );
-				}
-			}
+		// first determine the length of the loop, then trace it again to store
+		// all its cells so that we do not have to grow the array while tracing
+		int length = 0;
+		int idx = startidx;
+		int dir = Integer.lowestOneBit( pipes[ startidx ] );
+		do {
+			idx += offset( dir );
+			dir = exit( idx, dir );
+			length++;
+		} while( idx != startidx );
 			
-			// set list of nodes for the next round
-			curr.addAll( next );
+		final int[] loop = new int[ length ];
+		dir = Integer.lowestOneBit( pipes[ startidx ] );
+		for( int i = 0; i < length; i++ ) {
+			loop[i] = idx;
+			idx += offset( dir );
+			dir = exit( idx, dir );
 		}
-		
-		// return set of distance we've travelled
-		return visited;
+		return loop;
 	}
-	
+					
 	/**
-	 * Get the set of pipes we can walk from the current position
+	 * Determines the index offset of moving one step in the given direction
 	 * 
-	 * @param curr The current position
-	 * @return The set of neighbouring pipes that can be visited from here
+	 * @param dir The direction bit
+	 * @return The offset in the pipe array
 	 */
-	private Set<Coord2D> getNextPipes( final Coord2D curr ) {
-		final Set<Coord2D> N = new HashSet<>( );
-		
-		for( final Direction d : Direction.values( ) )
-			if( canMove( curr, d ) ) N.add( curr.move( d, 1 ) );
-				
-		return N;
+	private int offset( final int dir ) {
+		switch( dir ) {
+			case N: return -width;
+			case E: return 1;
+			case S: return width;
+			default: return -1;
+		}
 	}
-
+			
 	/**
-	 * Checks if we can move into the specified direction
+	 * Determines the direction in which we leave the pipe at the given index
 	 * 
-	 * @param curr The current coordinate
-	 * @param dir The direction to move towards
-	 * @return True iff there is a pipe at the new position that we can move to
-	 *   from the current pipe piece we are on
+	 * @param idx The index of the pipe in the array
+	 * @param dir The direction bit of the move with which we entered the pipe
+	 * @return The direction bit of the connection that we leave the pipe by
 	 */
-	protected boolean canMove( final Coord2D curr, final Direction dir ) {
-		final char currch = maze.get( curr );
-		final char nextch = maze.get( curr.move( dir, 1 ) );
-
-		switch( dir ) {
-			case West: return (currch == 'S' || currch == 'J' || currch == '7' || currch == '-') && (nextch == 'F' || nextch == 'L' || nextch == '-');
-			case East: return (currch == 'S' || currch == 'L' || currch == 'F' || currch == '-') && (nextch == 'J' || nextch == '7' || nextch == '-');
-			case North: return (currch == 'S' || currch == 'J' || currch == 'L' || currch == '|') && (nextch == '7' || nextch == 'F' || nextch == '|');
-			case South: return (currch == 'S' || currch == '7' || currch == 'F' || currch == '|') && (nextch == 'J' || nextch == 'L' || nextch == '|');
-			default:
-				throw new RuntimeException( "Unknown direction: " + dir );
-		}
+	private int exit( final int idx, final int dir ) {
+		// the connection we enter by is opposite to the direction we move in
+		final int from = ((dir << 2) | (dir >>> 2)) & 0xF;
+		final int conn = pipes[ idx ];
+		if( (conn & from) == 0 ) throw new RuntimeException( "The pipe loop is broken at (" + (idx % width) + "," + (idx / width) + ")" );
+		return conn ^ from;
 	}
 
 	/**
@@ -154,18 +221,21 @@ public class PipeMaze {
 	 * @return The count of all tiles inside the main loop
 	 */
 	public long countEnclosedTiles( ) {
-		// 1) identify all pipes part of the main loop (we are not interested in
-		// the distances in the result)
-		final Map<Coord2D, Integer> loop = getLoopDistances( );
+		final CoordGrid<Character> grid = getGrid( );
+		
+		// 1) identify all pipes part of the main loop
+		final int[] loopcells = traceLoop( );
+		final Set<Coord2D> loop = new HashSet<>( loopcells.length );
+		for( final int idx : loopcells ) loop.add( new Coord2D( idx % width, idx / width ) );
 
 		// 2) create a new maze that will hold the expanded version of the original
 		// maze. Copy the main loop into the new maze but also expand the pipes so
 		// that spaces between pipes of the original maze can be traversed
-		final CoordGrid<Character> newmaze = new CoordGrid<Character>( maze.getDefaultValue( ) );
-		for( final Coord2D c : loop.keySet( ) ) {
+		final CoordGrid<Character> newmaze = new CoordGrid<Character>( grid.getDefaultValue( ) );
+		for( final Coord2D c : loop ) {
 			// get associated expanded coordinate and character to write there
 			final Coord2D newc = new Coord2D( c.x * 2, c.y * 2 );
-			final char ch = maze.get( c );
+			final char ch = grid.get( c );
 			newmaze.set( newc, ch );
 			
 			// write neighbouring walls to reflect a 'zoomed in' version of the pipe
@@ -185,13 +255,177 @@ public class PipeMaze {
 		// 4) then count the tiles in the original maze that a) are not part of the
 		// main loop and b) cannot reach the outside in the expanded maze
 		long inside = 0;
-		for( final Coord2D c : maze ) {
-			if( loop.containsKey( c ) ) continue;
+		for( final Coord2D c : grid ) {
+			if( loop.contains( c ) ) continue;
 			if( newmaze.get( c.x * 2, c.y * 2 ) == '.' ) inside++;
 		}
 		return inside;
 	}
 
+	/**
+	 * Alternative algorithm to count all tiles enclosed by the main pipe loop
+	 * that does not require any additional grid. Instead, it walks the loop once
+	 * and accumulates its area using the shoelace formula. The loop is a simple
+	 * polygon with all its vertices on integer coordinates, hence Pick's theorem
+	 * (A = I + B/2 - 1) gives us the number of interior tiles I from the area A
+	 * and the number of boundary tiles B, i.e., the length of the loop.
+	 * 
+	 * @return The count of all tiles inside the main loop
+	 */
+	public long countEnclosedTilesShoelace( ) {
+		return measureLoop( start.y * width + start.x )[1];
+	}
+	
+	/**
+	 * Walks the loop that contains the given pipe and computes its length and
+	 * the number of tiles it encloses using the shoelace formula and Pick's
+	 * theorem.
+	 * 
+	 * @param startidx The index of any pipe on the loop
+	 * @return Pair of the loop length and the number of tiles enclosed by it
+	 */
+	private long[] measureLoop( final int startidx ) {
+		// walk the loop until we are back at the start and sum the (doubled)
+		// signed area of the trapezoids under every edge of the loop
+		int idx = startidx;
+		int dir = Integer.lowestOneBit( pipes[ startidx ] );
+		long area2 = 0;
+		long length = 0;
+		do {
+			final int next = idx + offset( dir );
+			area2 += (long)(idx % width) * (next / width) - (long)(next % width) * (idx / width);
+			length++;
+			
+			idx = next;
+			dir = exit( idx, dir );
+		} while( idx != startidx );
+		
+		// apply Pick's theorem to get the number of tiles inside the loop
+		return new long[] { length, (Math.abs( area2 ) - length) / 2 + 1 };
+	}
+	
+	/**
+	 * Finds and analyses all closed pipe loops in the maze, not only the main
+	 * loop. The maze is scanned once in row-major order. Whenever an unvisited
+	 * pipe is found, the path through it is traced. If the trace returns to the
+	 * pipe, a new loop is found and all its pipes are labelled, otherwise all
+	 * pipes of the broken path are marked as visited so that they are never
+	 * traced again.
+	 * 
+	 * The same scan determines the nesting of loops. The first pipe of a loop
+	 * that is encountered is its top-left corner, hence all loops that enclose
+	 * it have been found before. Along every row we keep a stack of the loops
+	 * that we are currently inside, by toggling a loop whenever we cross one of
+	 * its pipes that connect northwards. As loops never cross, the loop that is
+	 * toggled is always either the top of the stack or a new inner loop.
+	 * 
+	 * Finally, the lengths and enclosed areas of all loops are computed in
+	 * parallel.
+	 * 
+	 * @return The list of all closed loops in the maze in scan order
+	 */
+	public List<PipeLoop> analyseLoops( ) {
+		// the loop label of every pipe (starting at 1), or 0 if not part of one
+		final int[] labels = new int[ pipes.length ];
+		final BitSet visited = new BitSet( pipes.length );
+		
+		// the start pipe, parent loop and depth of every loop found
+		final List<int[]> found = new ArrayList<>( );
+		
+		// the stack of loops we are currently in along the row. Every loop that
+		// we enter is left again on the same row, so at most half of the tiles
+		// on a row can enter a loop
+		final int[] inside = new int[ width / 2 + 1 ];
+		int depth = 0;
+		
+		for( int idx = 0; idx < pipes.length; idx++ ) {
+			if( idx % width == 0 ) depth = 0;
+			if( pipes[ idx ] == 0 ) continue;
+			
+			// first time we see this pipe? trace it to see if it is part of a loop
+			if( labels[ idx ] == 0 && !visited.get( idx ) ) {
+				if( isLoop( idx, visited ) ) {
+					found.add( new int[] { idx, depth > 0 ? inside[ depth - 1 ] : 0, depth } );
+					labelLoop( idx, found.size( ), labels );
+				}
+			}
+			
+			// update the loops that we are in when crossing a loop
+			final int label = labels[ idx ];
+			if( label == 0 || (pipes[ idx ] & N) == 0 ) continue;
+			if( depth > 0 && inside[ depth - 1 ] == label ) depth--;
+			else inside[ depth++ ] = label;
+		}
+		
+		// compute length and enclosed tiles of all loops in parallel
+		final long[][] measures = new long[ found.size( ) ][];
+		IntStream.range( 0, found.size( ) ).parallel( ).forEach( i -> measures[i] = measureLoop( found.get( i )[0] ) );
+		
+		// determine the number of tiles enclosed by every loop that are not part
+		// of or enclosed by any loop that is nested in it
+		final long[] free = new long[ found.size( ) ];
+		for( int i = 0; i < free.length; i++ ) free[i] = measures[i][1];
+		for( int i = 0; i < free.length; i++ ) {
+			final int parent = found.get( i )[1];
+			if( parent > 0 ) free[ parent - 1 ] -= measures[i][0] + measures[i][1];
+		}
+		
+		final List<PipeLoop> loops = new ArrayList<>( found.size( ) );
+		for( int i = 0; i < found.size( ); i++ ) {
+			final int[] f = found.get( i );
+			loops.add( new PipeLoop( i + 1, new Coord2D( f[0] % width, f[0] / width ), measures[i][0], measures[i][1], free[i], f[1], f[2] ) );
+		}
+		return loops;
+	}
+	
+	/**
+	 * Traces the path through the given pipe to check whether it forms a closed
+	 * loop. All pipes that are traced are marked as visited.
+	 * 
+	 * @param startidx The index of the pipe to start tracing from
+	 * @param visited The set of pipes that have been traced already
+	 * @return True iff the path through the pipe is a closed loop
+	 */
+	private boolean isLoop( final int startidx, final BitSet visited ) {
+		int idx = startidx;
+		int dir = Integer.lowestOneBit( pipes[ startidx ] );
+		do {
+			visited.set( idx );
+			
+			// check if the next pipe is within the maze and connects to this one
+			final int x = idx % width;
+			if( (dir == W && x == 0) || (dir == E && x == width - 1) ) return false;
+			final int next = idx + offset( dir );
+			if( next < 0 || next >= pipes.length ) return false;
+			final int from = ((dir << 2) | (dir >>> 2)) & 0xF;
+			if( (pipes[ next ] & from) == 0 ) return false;
+			
+			// we have been here before, but not from our starting pipe
+			if( next != startidx && visited.get( next ) ) return false;
+			
+			idx = next;
+			dir = pipes[ next ] ^ from;
+		} while( idx != startidx );
+		return true;
+	}
+	
+	/**
+	 * Labels all pipes of a closed loop
+	 * 
+	 * @param startidx The index of any pipe in the loop
+	 * @param label The label to assign
+	 * @param labels The array of labels per pipe
+	 */
+	private void labelLoop( final int startidx, final int label, final int[] labels ) {
+		int idx = startidx;
+		int dir = Integer.lowestOneBit( pipes[ startidx ] );
+		do {
+			labels[ idx ] = label;
+			idx += offset( dir );
+			dir = exit( idx, dir );
+		} while( idx != startidx );
+	}
+	
 	/**
 	 * Breadth-first algorithm to mark all tiles that are not enclosed by the
 	 * main loop. The algorithm starts in the top left corner just outside the
@@ -205,7 +439,8 @@ public class PipeMaze {
 		// the walls of the original pipe maze
 		// use the dimensions of the original maze as outer bounds for the marking
 		// to make sure all original coordinates can be mapped onto the expanded one 
-		final Window2D border = new Window2D( -1, -1, maze.window( ).getMaxX( ) * 2 + 1, maze.window( ).getMaxY( ) * 2 + 1 );
+		final Window2D window = getGrid( ).window( );
+		final Window2D border = new Window2D( -1, -1, window.getMaxX( ) * 2 + 1, window.getMaxY( ) * 2 + 1 );
 		
 		// keep track of current tiles to explore and keep a history of past
 		// tiles, start top left outside the maze
@@ -242,4 +477,61 @@ public class PipeMaze {
 		// overwrite all visited coordinates with the mark
 		for( final Coord2D c : visited ) if( !border.onBorder( c ) ) M.set( c, 'O' );
 	}
+	
+	/**
+	 * Struct that holds the analysis of a single closed pipe loop
+	 * 
+	 * @author Joris
+	 */
+	public static class PipeLoop {
+		/** The label of the loop, starting at 1 */
+		public final int label;
+		
+		/** The top-left pipe of the loop */
+		public final Coord2D corner;
+		
+		/** The number of pipes in the loop */
+		public final long length;
+		
+		/** The number of tiles enclosed by the loop, including tiles of loops
+		 *  nested in it */
+		public final long enclosed;
+		
+		/** The number of enclosed tiles that are not part of, or enclosed by, any
+		 *  of the loops nested in this loop */
+		public final long free;
+		
+		/** The label of the innermost loop that encloses this loop, 0 if none */
+		public final int parent;
+		
+		/** The number of loops that enclose this loop */
+		public final int depth;
+		
+		/**
+		 * Creates a new loop analysis result
+		 * 
+		 * @param label The loop label
+		 * @param corner The top-left pipe of the loop
+		 * @param length The length of the loop
+		 * @param enclosed The number of enclosed tiles
+		 * @param free The number of enclosed tiles not in nested loops
+		 * @param parent The label of the enclosing loop
+		 * @param depth The nesting depth
+		 */
+		protected PipeLoop( final int label, final Coord2D corner, final long length, final long enclosed, final long free, final int parent, final int depth ) {
+			this.label = label;
+			this.corner = corner;
+			this.length = length;
+			this.enclosed = enclosed;
+			this.free = free;
+			this.parent = parent;
+			this.depth = depth;
+		}
+
+		/** @return The description of the loop */
+		@Override
+		public String toString( ) {
+			return "Loop " + label + " at " + corner + ": length " + length + ", enclosed " + enclosed + " (" + free + " free), depth " + depth + (parent > 0 ? " in loop " + parent : "");
+		}
+	}
 }
@@ -2,55 +2,136 @@ package challenges.day11;
 
 import java.util.List;
 
-import aocutil.geometry.Coord2D;
-import aocutil.grid.CoordGrid;
-
 /**
  * Our cosmos holding observable galaxies in an ever expanding space
  * 
  * @author Joris
  */
 public class Cosmos {
-	/** The galaxies observed as a grid */
-	protected final CoordGrid<Character> galaxies;
+	/** The x coordinates of the galaxies as observed */
+	protected final int[] galaxyX;
+	
+	/** The y coordinates of the galaxies as observed */
+	protected final int[] galaxyY;
+	
+	/** The width of the observed cosmos */
+	protected final int width;
+	
+	/** The height of the observed cosmos */
+	protected final int height;
+	
+	/** The sum of distances between all pairs of galaxies in the cosmos as
+	 *  observed, i.e., without expansion */
+	protected final long basedistance;
+	
+	/** The total number of empty rows and columns crossed when travelling
+	 *  between all pairs of galaxies */
+	protected final long crossings;
 
 	/**
-	 * Parse the observable galaxy into a nice SPARSE grid-like structure
+	 * Parse the observable galaxy into arrays of galaxy coordinates. The
+	 * expansion of the cosmos is not applied to the coordinates but taken into
+	 * account when computing distances.
 	 * 
 	 * @param input The list of strings that describe the initial observation of
 	 *   the cosmos and its galaxies, which has to be expanded
-	 * @param expfactor The expansion factor with which empty rows and columns in
-	 *   the cosmos grid need to be expanded 
 	 */
-	public Cosmos( final List<String> input, final int expfactor ) {
-		// parse the input into a nice sparse grid holding only the galaxy
-		// coordinates
-		galaxies = CoordGrid.fromCharGrid( input, '.' );
+	public Cosmos( final List<String> input ) {
+		height = input.size( );
+		width = input.get( 0 ).length( );
 		
-		// expand the universe at empty columns and rows by the given factor
-		// to do this we first scan for empty columns and rows
-		final boolean[] colhasgalaxy = new boolean[ galaxies.window( ).getWidth( ) ];
-		final boolean[] rowhasgalaxy = new boolean[ galaxies.window( ).getHeight( ) ];
-		for( final Coord2D c : galaxies.getKeys( ) ) colhasgalaxy[ c.x ] = rowhasgalaxy[ c.y ] = true;
+		// count galaxies first so we can store their coordinates in arrays
+		int count = 0;
+		for( final String line : input )
+			for( int x = 0; x < line.length( ); x++ ) if( line.charAt( x ) == '#' ) count++;
 
-		// the we expand by inserting columns and rows equal to expansion minus one
-		// as we already had one empty column or row in the cosmos where we insert
-		for( int i = colhasgalaxy.length - 1; i >= 0; i-- ) if( !colhasgalaxy[i] ) galaxies.insertColumns( i, expfactor - 1 );
-		for( int i = rowhasgalaxy.length - 1; i >= 0; i-- ) if( !rowhasgalaxy[i] ) galaxies.insertRows( i, expfactor - 1 );
+		galaxyX = new int[ count ];
+		galaxyY = new int[ count ];
+		int i = 0;
+		for( int y = 0; y < height; y++ ) {
+			final String line = input.get( y );
+			for( int x = 0; x < line.length( ); x++ ) {
+				if( line.charAt( x ) != '#' ) continue;
+				galaxyX[i] = x;
+				galaxyY[i] = y;
+				i++;
+			}
+		}
+		
+		// precompute the distance sum and empty space crossings, the distance in
+		// the expanded cosmos is affine in the expansion factor
+		final long[] dx = sumAxisDistances( galaxyX, width );
+		final long[] dy = sumAxisDistances( galaxyY, height );
+		basedistance = Math.addExact( dx[0], dy[0] );
+		crossings = Math.addExact( dx[1], dy[1] );
 	}
 	
 	/**
-	 * Simply sum the Manhattan distance between all pairs of galaxies
+	 * Sum the Manhattan distance between all pairs of galaxies in the expanded
+	 * cosmos. Every empty row or column that is crossed adds the expansion
+	 * factor minus one to the distance between two galaxies, hence the sum is
+	 * simply the sum of distances in the observed cosmos plus the expansion of
+	 * all crossings.
 	 * 
+	 * @param expfactor The expansion factor with which empty rows and columns in
+	 *   the cosmos grid need to be expanded 
 	 * @return The sum of distances between every pair of galaxies in the cosmos
 	 */
-	public long sumShortestDistances( ) {
-		// easiest way is to sum APSP distances and then divide by half as we count
-		// every pair twice
+	public long sumShortestDistances( final long expfactor ) {
+		return Math.addExact( basedistance, Math.multiplyExact( expfactor - 1, crossings ) );
+	}
+	
+	/**
+	 * Sum the Manhattan distance between all pairs of galaxies in the expanded
+	 * cosmos for a batch of expansion factors
+	 * 
+	 * @param expfactors The expansion factors to compute the sum for
+	 * @return The sum of distances between every pair of galaxies per factor
+	 */
+	public long[] sumShortestDistances( final long[] expfactors ) {
+		final long[] sums = new long[ expfactors.length ];
+		for( int i = 0; i < sums.length; i++ ) sums[i] = sumShortestDistances( expfactors[i] );
+		return sums;
+	}
+	
+	/**
+	 * Sums the distances along a single axis between all pairs of galaxies, as
+	 * well as the number of empty lines crossed between them. The galaxies are
+	 * counted per row or column, which gives them in sorted order without
+	 * actually sorting. Then, for every line, the distance to all galaxies on
+	 * preceding lines follows from the number of those galaxies and the sum of
+	 * their positions. The same holds for the crossings if we use the number
+	 * of preceding empty lines as position.
+	 * 
+	 * @param coords The coordinates of all galaxies along the axis
+	 * @param size The size of the cosmos along the axis
+	 * @return Pair of the sum of distances along the axis between all pairs and
+	 *   the sum of empty lines crossed between all pairs
+	 */
+	private static long[] sumAxisDistances( final int[] coords, final int size ) {
+		final int[] counts = new int[ size ];
+		for( final int c : coords ) counts[ c ]++;
+		
+		long empty = 0;
+		long seen = 0;
+		long possum = 0;
+		long emptysum = 0;
 		long sum = 0;
-		for( final Coord2D c1 : galaxies.getKeys( ) )
-			for( final Coord2D c2 : galaxies.getKeys( ) )
-				sum += c1.getManhattanDistance( c2 );
-		return sum / 2;
+		long crossed = 0;
+		for( int p = 0; p < size; p++ ) {
+			if( counts[p] == 0 ) {
+				empty++;
+				continue;
+			}
+			
+			// distance and crossings from all galaxies on this line to the
+			// galaxies on preceding lines
+			sum = Math.addExact( sum, Math.multiplyExact( counts[p], seen * p - possum ) );
+			crossed = Math.addExact( crossed, Math.multiplyExact( counts[p], seen * empty - emptysum ) );
+			seen += counts[p];
+			possum += (long)counts[p] * p;
+			emptysum += counts[p] * empty;
+		}
+		return new long[] { sum, crossed };
 	}
 }
@@ -18,14 +18,19 @@ public class Day11 {
 		final List<String> ex_input = new FileReader( Day11.class.getResource( "example.txt" ) ).readLines( );
 		final List<String> input = new FileReader( Day11.class.getResource( "input.txt" ) ).readLines( );
 		
+		// observe both cosmoses only once and evaluate all expansion factors on
+		// the same observation
+		final long[] ex_sums = CosmicAPSP( ex_input, 1, 10, 100 );
+		final long[] sums = CosmicAPSP( input, 1, 1000000 );
+		
 		System.out.println( "---[ Part 1 ]---" );
-		System.out.println( "Example: " + CosmicAPSP( ex_input, 1 ) );
-		System.out.println( "Answer : " + CosmicAPSP( input, 1 ) );
+		System.out.println( "Example: " + ex_sums[0] );
+		System.out.println( "Answer : " + sums[0] );
 
 		System.out.println( "\n---[ Part 2 ]---" );
-		System.out.println( "Example: " + CosmicAPSP( ex_input, 10 ) );
-		System.out.println( "Example: " + CosmicAPSP( ex_input, 100 ) );
-		System.out.println( "Answer : " + CosmicAPSP( input, 1000000 ) );
+		System.out.println( "Example: " + ex_sums[1] );
+		System.out.println( "Example: " + ex_sums[2] );
+		System.out.println( "Answer : " + sums[1] );
 	}
 
 	/**
@@ -34,11 +39,12 @@ public class Day11 {
 	 * to be expanding empty space as well...
 	 * 
 	 * @param input The grid of galaxies observed through a telescope
-	 * @param expfactor The expansion factor of empty space in the cosmos
-	 * @return The sum of APSP lengths between all galaxies of the cosmos
+	 * @param expfactors The expansion factors of empty space in the cosmos
+	 * @return The sum of APSP lengths between all galaxies of the cosmos, per
+	 *   expansion factor
 	 */
-	private static long CosmicAPSP( final List<String> input, final int expfactor ) {
-		final Cosmos C = new Cosmos( input, expfactor );
-		return C.sumShortestDistances( );
+	private static long[] CosmicAPSP( final List<String> input, final long... expfactors ) {
+		final Cosmos C = new Cosmos( input );
+		return C.sumShortestDistances( expfactors );
 	}
 }
\ No newline at end of file
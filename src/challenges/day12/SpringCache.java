@@ -0,0 +1,244 @@
+package challenges.day12;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded memo cache for spring configuration counts of subproblems that can
+ * be shared by all rows in a run, also by parallel workers. A subproblem is a
+ * remaining layout suffix with the remaining blocks to place. Entries are
+ * located by a 64-bit hash of the subproblem, but a hit is only reported if
+ * the stored subproblem is equal to the one that is looked up, so that a hash
+ * collision never returns a wrong count. The cache is split into stripes
+ * that each hold a part of the entries and are locked independently, so that
+ * workers rarely contend. Every stripe evicts its least recently used entry
+ * when it is full.
+ * 
+ * @author Joris
+ */
+public class SpringCache {
+	/** The stripes that hold the cached counts */
+	private final Stripe[] stripes;
+	
+	/** The number of successful lookups */
+	private final LongAdder hits;
+	
+	/** The number of failed lookups */
+	private final LongAdder misses;
+	
+	/**
+	 * Creates a new cache with 64 stripes
+	 * 
+	 * @param capacity The maximum number of entries in the cache
+	 */
+	public SpringCache( final int capacity ) {
+		this( capacity, 64 );
+	}
+	
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param capacity The maximum number of entries in the cache
+	 * @param stripecount The number of stripes, must be a power of two
+	 */
+	public SpringCache( final int capacity, final int stripecount ) {
+		if( Integer.bitCount( stripecount ) != 1 ) throw new RuntimeException( "The number of stripes must be a power of two: " + stripecount );
+		
+		stripes = new Stripe[ stripecount ];
+		final int perstripe = Math.max( 1, capacity / stripecount );
+		for( int i = 0; i < stripecount; i++ ) stripes[i] = new Stripe( perstripe );
+		hits = new LongAdder( );
+		misses = new LongAdder( );
+	}
+	
+	/**
+	 * Looks up the count of a subproblem
+	 * 
+	 * @param key The subproblem
+	 * @return The cached count or -1 if it is not in the cache
+	 */
+	public long get( final Key key ) {
+		final Stripe S = getStripe( key );
+		final Long value;
+		synchronized( S ) {
+			value = S.get( key );
+		}
+		
+		if( value == null ) {
+			misses.increment( );
+			return -1;
+		}
+		hits.increment( );
+		return value;
+	}
+	
+	/**
+	 * Stores the count of a subproblem
+	 * 
+	 * @param key The subproblem
+	 * @param count The number of configurations of the subproblem
+	 */
+	public void put( final Key key, final long count ) {
+		final Stripe S = getStripe( key );
+		synchronized( S ) {
+			S.put( key, count );
+		}
+	}
+	
+	/**
+	 * Determines the stripe that holds the given key
+	 * 
+	 * @param key The key
+	 * @return The stripe responsible for the key
+	 */
+	private Stripe getStripe( final Key key ) {
+		return stripes[ (int)(key.hash ^ (key.hash >>> 32)) & (stripes.length - 1) ];
+	}
+	
+	/** @return The number of entries currently in the cache */
+	public int size( ) {
+		int size = 0;
+		for( final Stripe S : stripes )
+			synchronized( S ) {
+				size += S.size( );
+			}
+		return size;
+	}
+	
+	/** @return The number of successful lookups */
+	public long getHits( ) {
+		return hits.sum( );
+	}
+	
+	/** @return The number of failed lookups */
+	public long getMisses( ) {
+		return misses.sum( );
+	}
+	
+	/** @return The fraction of lookups that were successful */
+	public double getHitRate( ) {
+		final long h = hits.sum( );
+		final long total = h + misses.sum( );
+		return total == 0 ? 0 : h / (double)total;
+	}
+	
+	/**
+	 * Combines two 64-bit values into a well-mixed hash value
+	 * 
+	 * @param h The current hash value
+	 * @param value The value to add to it
+	 * @return The new hash value
+	 */
+	public static long mix( final long h, final long value ) {
+		long x = (h ^ value) * 0x9E3779B97F4A7C15L;
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		return x ^ (x >>> 31);
+	}
+	
+	/** @return The cache statistics as a string */
+	@Override
+	public String toString( ) {
+		return "size " + size( ) + ", hits " + getHits( ) + ", misses " + getMisses( );
+	}
+	
+	/**
+	 * A subproblem that identifies a cache entry, i.e., the suffix of a layout
+	 * starting at some position and the suffix of a block list starting at some
+	 * block. The key refers to the arrays of the row that it was created for,
+	 * hence they should not be modified after the key is stored in the cache.
+	 * 
+	 * @author Joris
+	 */
+	public static class Key {
+		/** The hash of the subproblem */
+		protected final long hash;
+		
+		/** The layout */
+		protected final char[] layout;
+		
+		/** The position at which the layout suffix starts */
+		protected final int idx;
+		
+		/** The block sizes */
+		protected final int[] blocks;
+		
+		/** The index of the first block of the block suffix */
+		protected final int block;
+		
+		/**
+		 * Creates a new subproblem key
+		 * 
+		 * @param hash The hash of the layout and block suffixes
+		 * @param layout The layout
+		 * @param idx The start position of the layout suffix
+		 * @param blocks The block sizes
+		 * @param block The index of the first remaining block
+		 */
+		public Key( final long hash, final char[] layout, final int idx, final int[] blocks, final int block ) {
+			this.hash = hash;
+			this.layout = layout;
+			this.idx = idx;
+			this.blocks = blocks;
+			this.block = block;
+		}
+		
+		/** @return The hash code of the key */
+		@Override
+		public int hashCode( ) {
+			return (int)(hash ^ (hash >>> 32));
+		}
+		
+		/**
+		 * Checks whether the other object describes the same subproblem, i.e.,
+		 * its layout and block suffixes are equal to those of this key
+		 * 
+		 * @param obj The object to compare against
+		 * @return True iff the object is a key of the same subproblem
+		 */
+		@Override
+		public boolean equals( final Object obj ) {
+			if( obj == this ) return true;
+			if( obj == null || !(obj instanceof Key) ) return false;
+			final Key k = (Key)obj;
+			return hash == k.hash && Arrays.equals( layout, idx, layout.length, k.layout, k.idx, k.layout.length ) && Arrays.equals( blocks, block, blocks.length, k.blocks, k.block, k.blocks.length );
+		}
+	}
+	
+	/**
+	 * A single stripe of the cache, which is a map in access order that
+	 * removes the least recently used entry when it grows beyond its capacity
+	 * 
+	 * @author Joris
+	 */
+	private static class Stripe extends LinkedHashMap<Key, Long> {
+		/** Serial version UID */
+		private static final long serialVersionUID = 1L;
+		
+		/** The maximum number of entries in the stripe */
+		protected final int capacity;
+		
+		/**
+		 * Creates a new stripe
+		 * 
+		 * @param capacity The maximum number of entries
+		 */
+		protected Stripe( final int capacity ) {
+			super( 16, 0.75f, true );
+			this.capacity = capacity;
+		}
+		
+		/**
+		 * Checks whether the eldest entry should be removed
+		 * 
+		 * @param eldest The eldest entry in the stripe
+		 * @return True iff the stripe exceeds its capacity
+		 */
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry<Key, Long> eldest ) {
+			return size( ) > capacity;
+		}
+	}
+}
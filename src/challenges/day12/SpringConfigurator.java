@@ -1,11 +1,15 @@
 package challenges.day12;
 
+import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.function.Function;
 
 /**
  * Class that counts unique configurations of blocks of springs, given a layout
@@ -14,6 +18,9 @@ import java.util.Stack;
  * @author Joris
  */
 public class SpringConfigurator {
+	/** The maximum number of bounded boundary states to count by squaring */
+	private static final int MAX_SQUARING_STATES = 256;
+	
 	/** The spring slots layout */
 	protected final String springs;
 	
@@ -34,92 +41,513 @@ public class SpringConfigurator {
 	
 	/**
 	 * Counts the number of unique configurations possible, given the layout and
-	 * blocks. 
+	 * blocks. The count is computed by dynamic programming over the position in
+	 * the layout and the index of the next block to place, from the end of the
+	 * layout to its start: the number of configurations of the remaining blocks
+	 * in the remaining layout is the sum of the configurations when we skip the
+	 * current position (if it is not a spring) and the configurations when we
+	 * fit the block at the current position (if possible).
 	 * 
 	 * @param folds The number of repetitions of the layout and block set
 	 * @return The total count of unique block configurations possible in the
 	 *   given (folded) layout
 	 */
 	public long countConfigurations( final int folds ) {
-		// create initial state to solve from
-		Map<String, Long> S = new HashMap<String, Long>( );
+		// unfold the layout and blocks
 		final StringBuilder sb = new StringBuilder( );
 		sb.append( springs );
 		for( int i = 1; i < folds; i++ ) sb.append( "?" + springs );
-		S.put( sb.toString( ), 1l );
+		final char[] layout = sb.toString( ).toCharArray( );
+		final int n = layout.length;
 
-		// create the stack of spring blocks that need to be fitted in the slots 
-		final Stack<Integer> blockstack = new Stack<>( );
-		for( int i = 0; i < folds; i++ ) blockstack.addAll( blocks );
-		Collections.reverse( blockstack );
-		
-		// keep track of the minimum required size to fit the remaining blocks to
-		// help identify invalid configurations quickly (i.e., no more space to fit
-		// all remaining blocks anyway) 
-		int B = blocks.stream( ).mapToInt( x -> x ).sum( ) + blocks.size( ) - 1;
+		final int[] B = new int[ blocks.size( ) * folds ];
+		for( int i = 0; i < B.length; i++ ) B[i] = blocks.get( i % blocks.size( ) );
+		
+		// count the number of empty slots and mandatory springs before every
+		// position so that we can check block fits in constant time
+		final int[] empty = new int[ n + 1 ];
+		final int[] springcount = new int[ n + 1 ];
+		for( int i = 0; i < n; i++ ) {
+			empty[ i + 1 ] = empty[i] + (layout[i] == '.' ? 1 : 0);
+			springcount[ i + 1 ] = springcount[i] + (layout[i] == '#' ? 1 : 0);
+		}
 
-		// generate all unique next states from this state by fixing the first
-		// block and keep track of count per state
-		while( !blockstack.isEmpty( ) ) {
-			final Map<String, Long> Snew = new HashMap<String, Long>( );
-			
-			// try next block and generate new states
-			final int block = blockstack.pop( );
-			for( final String state : S.keySet( ) ) {
+		// with no blocks left, the remaining layout is only valid if it contains
+		// no mandatory springs
+		long[] next = new long[ n + 1 ];
+		long[] curr = new long[ n + 1 ];
+		for( int i = 0; i <= n; i++ ) next[i] = springcount[n] == springcount[i] ? 1 : 0;
+
+		// then add the blocks one by one, starting from the last
+		for( int j = B.length - 1; j >= 0; j-- ) {
+			final int block = B[j];
+			curr[n] = 0;
+			for( int i = n - 1; i >= 0; i-- ) {
+				// skip this position, only allowed if it is not a spring
+				long count = layout[i] != '#' ? curr[ i + 1 ] : 0;
 				
-				// determine set of new states reachable from this state
-				final Map<String, Long> configs = new HashMap<>( );				
-				for( int i = 0; i < state.length( ) - B + 1; i++ ) {
-					if( !fits( state, i, block ) ) continue;
-					
-					// new valid configuration for this block, add it as a next state
-					final String key = state.substring( Math.min( i + block + 1, state.length( ) ) );
-					configs.put( key, configs.getOrDefault( key, 0l ) + 1 );
+				// or fit the block here, followed by an empty slot
+				final int end = i + block;
+				if( end <= n && empty[ end ] == empty[i] && (end == n || layout[ end ] != '#') )
+					count += next[ Math.min( end + 1, n ) ];
+				
+				curr[i] = count;
+			}
+			
+			final long[] tmp = next; next = curr; curr = tmp;
+		}
+		
+		return next[0];
+	}
+	
+	/**
+	 * Counts the number of unique configurations possible, given the layout and
+	 * blocks, using a memo cache that is shared with other configurators. The
+	 * count is computed top-down over the remaining layout and blocks, using an
+	 * explicit work stack rather than recursion so that long rows cannot
+	 * overflow the thread stack. As many rows share the same remaining layout
+	 * and blocks, the counts of these subproblems are looked up in and stored
+	 * to the shared cache. This is an opt-in alternative to the plain dynamic
+	 * program of countConfigurations( int ), which is cheaper for a single row
+	 * as it needs no cache keys and only two arrays over the layout.
+	 * 
+	 * @param folds The number of repetitions of the layout and block set
+	 * @param cache The cache of subproblem counts, safe to share across threads
+	 * @return The total count of unique block configurations possible in the
+	 *   given (folded) layout
+	 */
+	public long countConfigurations( final int folds, final SpringCache cache ) {
+		// unfold the layout and blocks
+		final StringBuilder sb = new StringBuilder( );
+		sb.append( springs );
+		for( int i = 1; i < folds; i++ ) sb.append( "?" + springs );
+		final char[] layout = sb.toString( ).toCharArray( );
+		final int n = layout.length;
+		
+		final int[] B = new int[ blocks.size( ) * folds ];
+		for( int i = 0; i < B.length; i++ ) B[i] = blocks.get( i % blocks.size( ) );
+		
+		// compute the hashes of all layout and block suffixes
+		final long[] layouthash = new long[ n + 1 ];
+		for( int i = n - 1; i >= 0; i-- ) layouthash[i] = SpringCache.mix( layouthash[ i + 1 ], layout[i] );
+		final long[] blockhash = new long[ B.length + 1 ];
+		blockhash[ B.length ] = -1;
+		for( int j = B.length - 1; j >= 0; j-- ) blockhash[j] = SpringCache.mix( blockhash[ j + 1 ], B[j] );
+		
+		// count the number of empty slots and mandatory springs before every
+		// position so that we can check block fits in constant time
+		final int[] empty = new int[ n + 1 ];
+		final int[] springcount = new int[ n + 1 ];
+		for( int i = 0; i < n; i++ ) {
+			empty[ i + 1 ] = empty[i] + (layout[i] == '.' ? 1 : 0);
+			springcount[ i + 1 ] = springcount[i] + (layout[i] == '#' ? 1 : 0);
+		}
+		
+		// the memo of counts per position and block, -1 if not known yet and -2
+		// if its subproblems are being counted. With no blocks left, the
+		// remaining layout is only valid if it contains no mandatory springs and
+		// with no layout left, no more blocks can be placed
+		final int W = B.length + 1;
+		if( (long)(n + 1) * W > Integer.MAX_VALUE ) throw new RuntimeException( "The unfolded row is too large to count with a cache" );
+		final long[][] memo = new long[ n + 1 ][ W ];
+		for( int i = 0; i <= n; i++ ) {
+			Arrays.fill( memo[i], i == n ? 0 : -1 );
+			memo[i][ B.length ] = springcount[n] == springcount[i] ? 1 : 0;
+		}
+	
+		// process the subproblems depth-first, every subproblem is revisited
+		// once its skip and fit subproblems have been counted
+		int[] stack = new int[ 64 ];
+		int sp = 0;
+		stack[ sp++ ] = 0;
+		while( sp > 0 ) {
+			final int idx = stack[ sp - 1 ] / W;
+			final int block = stack[ sp - 1 ] % W;
+			if( memo[ idx ][ block ] >= 0 ) {
+				sp--;
+				continue;
+			}
+		
+			// the skip and fit subproblems, -1 if they are not possible
+			final int end = idx + B[ block ];
+			final int skip = layout[ idx ] != '#' ? idx + 1 : -1;
+			final int fit = end <= n && empty[ end ] == empty[ idx ] && (end == n || layout[ end ] != '#') ? Math.min( end + 1, n ) : -1;
+			
+			if( memo[ idx ][ block ] == -1 ) {
+				// check if another row already solved this subproblem
+				final long count = cache.get( new SpringCache.Key( SpringCache.mix( layouthash[ idx ], blockhash[ block ] ), layout, idx, B, block ) );
+				if( count >= 0 ) {
+					memo[ idx ][ block ] = count;
+					sp--;
+					continue;
 				}
-
-				// decrease size of spring blocks still to be slotted with the size of
-				// just fitted block (and a single empty slot following it)
-				B -= block + 1;
-
-				// add new states to the set for next run, also keeping track of the
-				// number of times each state has been encountered
-				for( final String cfg : configs.keySet( ) )				
-					Snew.put( cfg, Snew.getOrDefault( cfg, 0l ) + S.get( state ) * configs.get( cfg ) );
+				
+				// if not, count its subproblems first
+				memo[ idx ][ block ] = -2;
+				if( sp + 2 > stack.length ) stack = Arrays.copyOf( stack, stack.length * 2 );
+				if( skip >= 0 && memo[ skip ][ block ] == -1 ) stack[ sp++ ] = skip * W + block;
+				if( fit >= 0 && memo[ fit ][ block + 1 ] == -1 ) stack[ sp++ ] = fit * W + block + 1;
+				continue;
 			}
 			
-			// swap next states with current state set and try next block, if any
-			S = Snew;			
+			// all subproblems are counted, skip this position if it is not a spring
+			// or fit the block here, followed by an empty slot
+			long count = skip >= 0 ? memo[ skip ][ block ] : 0;
+			if( fit >= 0 ) count += memo[ fit ][ block + 1 ];
+			memo[ idx ][ block ] = count;
+			cache.put( new SpringCache.Key( SpringCache.mix( layouthash[ idx ], blockhash[ block ] ), layout, idx, B, block ), count );
+			sp--;
+		}
+		
+		return memo[0][0];
+	}
+	
+	/**
+	 * Counts the number of unique configurations for large numbers of folds,
+	 * without unfolding the layout. Instead, the count is computed per fold
+	 * over the boundary states between two folds. Such a state consists of the
+	 * number of blocks that have been placed completely and the number of
+	 * springs of the current block placed so far, as blocks can span multiple
+	 * folds. The effect of a single fold on a boundary state only depends on
+	 * the index of the current block within the block set, hence the transfer
+	 * of one fold is computed once. If the boundary states can be bounded, the
+	 * transfer is raised to the number of folds by repeated squaring (see
+	 * countBySquaring), otherwise it is applied once per fold.
+	 * 
+	 * As counts quickly grow beyond the range of a long, they are computed as
+	 * BigInteger, optionally modulo the given modulus.
+	 * 
+	 * @param folds The number of repetitions of the layout and block set
+	 * @param modulus The modulus to compute the count with, null to compute the
+	 *   exact count
+	 * @return The total count of unique block configurations possible in the
+	 *   given folded layout, modulo the modulus if specified
+	 */
+	public BigInteger countConfigurations( final int folds, final BigInteger modulus ) {
+		final int K = blocks.size( );
+		final int total = K * folds;
+		final int maxblock = blocks.stream( ).mapToInt( x -> x ).max( ).orElse( 0 );
+		final int Q = maxblock + 1;
+		
+		// determine the transfer of the first fold, from the initial state, and
+		// of every following fold, which starts with a separator, from any of the
+		// boundary states
+		final FoldTransfer first = new FoldTransfer( springs, 0, 0 );
+		final FoldTransfer[][] transfer = new FoldTransfer[ K ][ Q ];
+		int maxplaced = 0;
+		for( int r = 0; r < K; r++ )
+			for( int q = 0; q <= blocks.get( r ); q++ ) {
+				transfer[r][q] = new FoldTransfer( "?" + springs, r, q );
+				for( final int d : transfer[r][q].placed ) maxplaced = Math.max( maxplaced, d );
+			}
+		
+		// try to raise the fold transfer to the number of folds
+		if( folds > 0 ) {
+			final BigInteger count = countBySquaring( folds, modulus, first, transfer, Q );
+			if( count != null ) return count;
+		}
+		
+		// the counts per boundary state, indexed by blocks placed * Q + springs
+		// placed of the current block
+		BigInteger[] curr = new BigInteger[ (total + 1) * Q ];
+		BigInteger[] next = new BigInteger[ curr.length ];
+		apply( first, 0, BigInteger.ONE, curr, total, Q, folds - 1, maxplaced, modulus );
+		
+		// then apply the fold transfer to all states
+		for( int f = 1; f < folds; f++ ) {
+			Arrays.fill( next, null );
+			for( int s = 0; s < curr.length; s++ ) {
+				if( curr[s] == null ) continue;
+				final int placed = s / Q;
+				apply( transfer[ placed % K ][ s % Q ], placed, curr[s], next, total, Q, folds - 1 - f, maxplaced, modulus );
+			}
+			final BigInteger[] tmp = curr; curr = next; next = tmp;
 		}
 		
-		// remove invalid states from the map and return the count		
-		return S.entrySet( ).stream( ).filter( e -> !e.getKey( ).contains( "#" ) ).mapToLong( e -> e.getValue( ) ).sum( );
+		// valid configurations have placed all blocks or end with the complete
+		// last block
+		BigInteger count = BigInteger.ZERO;
+		if( curr[ total * Q ] != null ) count = count.add( curr[ total * Q ] );
+		if( total > 0 && curr[ (total - 1) * Q + blocks.get( K - 1 ) ] != null ) count = count.add( curr[ (total - 1) * Q + blocks.get( K - 1 ) ] );
+		return modulus != null ? count.mod( modulus ) : count;
 	}
 	
 	/**
-	 * Function that validates whether a block of given size can be slotted at
-	 * the specified index, given the remaining slot layout 
+	 * Counts the configurations by raising the fold transfer, as a matrix over
+	 * the boundary states, to the number of folds by repeated squaring. To keep
+	 * the boundary state bounded, it holds the index r of the current block
+	 * within the block set, the number of springs q of that block placed so
+	 * far and the drift d, the number of blocks placed minus the number of
+	 * blocks in the folds processed so far. The drift of a valid configuration
+	 * is only bounded if every cycle of fold transfers that can be part of it
+	 * has a drift of zero, which is verified per strongly connected component
+	 * of the (r, q) transfer graph. Otherwise, or when the bounded state space
+	 * is too large, no count is returned.
 	 * 
-	 * @param springlayout The (remaining) layout of spring positions
-	 * @param idx The index at which we want to fit the spring block
-	 * @param blocksize The size of the block to fit
-	 * @return True iff the block would fit at the given position. That is, 
-	 *   fitting the block will not lead to an invalid configuration 
+	 * @param folds The number of repetitions of the layout and block set
+	 * @param modulus The modulus to compute the count with, null if none
+	 * @param first The transfer of the first fold
+	 * @param transfer The transfer of all following folds, per block index and
+	 *   number of springs of the current block
+	 * @param Q The number of springs states per block index
+	 * @return The count of valid configurations, or null if the boundary states
+	 *   cannot be bounded
 	 */
-	private boolean fits( final String springlayout, final int idx, final int blocksize ) {
-		// would the block fit at all?
-		if( idx + blocksize > springlayout.length( ) ) return false;
+	private BigInteger countBySquaring( final int folds, final BigInteger modulus, final FoldTransfer first, final FoldTransfer[][] transfer, final int Q ) {
+		final int K = blocks.size( );
+		final int N = K * Q;
+		final int[] accept = new int[] { 0, (K - 1) * Q + blocks.get( K - 1 ) };
 		
-		// the block can't end just before any mandatory spring
-		final int afteridx = idx + blocksize;
-		if( springlayout.length( ) > afteridx && springlayout.charAt( afteridx ) == '#' ) return false;
+		// build the (r, q) transfer graph, every edge holds its target and drift
+		final List<List<int[]>> edges = new ArrayList<>( N );
+		final List<List<Integer>> reverse = new ArrayList<>( N );
+		for( int u = 0; u < N; u++ ) {
+			edges.add( new ArrayList<>( ) );
+			reverse.add( new ArrayList<>( ) );
+		}
+		for( int r = 0; r < K; r++ )
+			for( int q = 0; q <= blocks.get( r ); q++ ) {
+				final FoldTransfer T = transfer[r][q];
+				for( int i = 0; i < T.placed.length; i++ ) {
+					final int v = ((r + T.placed[i]) % K) * Q + T.springs[i];
+					edges.get( r * Q + q ).add( new int[] { v, T.placed[i] - K, i } );
+					reverse.get( v ).add( r * Q + q );
+				}
+			}
+		
+		// only keep the states that can be reached after the first fold and from
+		// which a valid end state can be reached
+		final List<Integer> starts = new ArrayList<>( );
+		for( int i = 0; i < first.placed.length; i++ )
+			starts.add( (first.placed[i] % K) * Q + first.springs[i] );
+		final boolean[] useful = reachable( starts, u -> edges.get( u ).stream( ).map( e -> e[0] ).toList( ), N );
+		final boolean[] coreach = reachable( List.of( accept[0], accept[1] ), reverse::get, N );
+		for( int u = 0; u < N; u++ ) useful[u] &= coreach[u];
+		
+		// determine the strongly connected components and verify that every
+		// edge within a component has a drift that is consistent with a
+		// potential, i.e. that all cycles have a drift of zero
+		final boolean[][] reach = new boolean[ N ][];
+		for( int u = 0; u < N; u++ )
+			if( useful[u] ) reach[u] = reachable( List.of( u ), x -> edges.get( x ).stream( ).filter( e -> useful[ e[0] ] ).map( e -> e[0] ).toList( ), N );
+		final int[] potential = new int[ N ];
+		final boolean[] assigned = new boolean[ N ];
+		for( int root = 0; root < N; root++ ) {
+			if( !useful[root] || assigned[root] ) continue;
+			final Deque<Integer> queue = new ArrayDeque<>( );
+			queue.add( root );
+			assigned[root] = true;
+			while( !queue.isEmpty( ) ) {
+				final int u = queue.poll( );
+				for( final int[] e : edges.get( u ) ) {
+					if( !useful[ e[0] ] || !reach[root][ e[0] ] || !reach[ e[0] ][root] ) continue;
+					if( !assigned[ e[0] ] ) {
+						potential[ e[0] ] = potential[u] + e[1];
+						assigned[ e[0] ] = true;
+						queue.add( e[0] );
+					} else if( potential[ e[0] ] != potential[u] + e[1] ) return null;
+				}
+			}
+		}
 		
-		// can't put a block over a dash
-		for( int i = idx; i < idx + blocksize; i++ ) if( springlayout.charAt( i ) == '.' ) return false;
+		// enumerate the bounded (r, q, d) states, keyed by drift and (r, q)
+		final Map<Long, Integer> index = new HashMap<>( );
+		final List<Long> states = new ArrayList<>( );
+		for( int i = 0; i < first.placed.length; i++ )
+			if( useful[ starts.get( i ) ] && index.putIfAbsent( ((long)(first.placed[i] - K) << 32) | starts.get( i ), states.size( ) ) == null )
+				states.add( ((long)(first.placed[i] - K) << 32) | starts.get( i ) );
+		for( int s = 0; s < states.size( ); s++ ) {
+			if( states.size( ) > MAX_SQUARING_STATES ) return null;
+			final int u = (int)(states.get( s ) & 0xFFFFFFFFL);
+			final int d = (int)(states.get( s ) >> 32);
+			for( final int[] e : edges.get( u ) ) {
+				final long key = ((long)(d + e[1]) << 32) | e[0];
+				if( useful[ e[0] ] && index.putIfAbsent( key, states.size( ) ) == null ) states.add( key );
+			}
+		}
 		
-		// would the block invalidate a passed block in the spring set?
-		for( int i = 0; i < idx; i++ ) if( springlayout.charAt( i ) == '#' ) return false;
+		// build the transfer matrix and the counts after the first fold
+		final int M = states.size( );
+		if( M == 0 ) return BigInteger.ZERO;
+		BigInteger[][] matrix = new BigInteger[ M ][ M ];
+		for( int s = 0; s < M; s++ ) {
+			final int u = (int)(states.get( s ) & 0xFFFFFFFFL);
+			final int d = (int)(states.get( s ) >> 32);
+			for( final int[] e : edges.get( u ) ) {
+				final Integer t = index.get( ((long)(d + e[1]) << 32) | e[0] );
+				if( t == null ) continue;
+				final BigInteger c = transfer[ u / Q ][ u % Q ].counts[ e[2] ];
+				matrix[s][t] = matrix[s][t] == null ? c : matrix[s][t].add( c );
+			}
+		}
+		BigInteger[][] counts = new BigInteger[ 1 ][ M ];
+		for( int i = 0; i < first.placed.length; i++ ) {
+			final Integer s = index.get( ((long)(first.placed[i] - K) << 32) | starts.get( i ) );
+			if( s != null ) counts[0][s] = counts[0][s] == null ? first.counts[i] : counts[0][s].add( first.counts[i] );
+		}
 		
-		return true;
+		// apply the remaining folds by repeated squaring of the matrix
+		for( int e = folds - 1; e > 0; e >>= 1 ) {
+			if( (e & 1) != 0 ) counts = multiply( counts, matrix, modulus );
+			if( e > 1 ) matrix = multiply( matrix, matrix, modulus );
+		}
+		
+		// valid configurations have placed all blocks or end with the complete
+		// last block
+		BigInteger count = BigInteger.ZERO;
+		final Integer end = index.get( (long)accept[0] );
+		final Integer endlast = index.get( (-1L << 32) | accept[1] );
+		if( end != null && counts[0][end] != null ) count = count.add( counts[0][end] );
+		if( endlast != null && counts[0][endlast] != null ) count = count.add( counts[0][endlast] );
+		return modulus != null ? count.mod( modulus ) : count;
+	}
+	
+	/**
+	 * Determines all nodes of a graph that can be reached from the given
+	 * start nodes
+	 * 
+	 * @param starts The nodes to start from
+	 * @param next Function that returns the neighbours of a node
+	 * @param N The number of nodes in the graph
+	 * @return Array that is true for every reachable node
+	 */
+	private static boolean[] reachable( final Collection<Integer> starts, final Function<Integer, List<Integer>> next, final int N ) {
+		final boolean[] reached = new boolean[ N ];
+		final Deque<Integer> queue = new ArrayDeque<>( );
+		for( final int s : starts )
+			if( !reached[s] ) {
+				reached[s] = true;
+				queue.add( s );
+			}
+		while( !queue.isEmpty( ) )
+			for( final int v : next.apply( queue.poll( ) ) )
+				if( !reached[v] ) {
+					reached[v] = true;
+					queue.add( v );
+				}
+		return reached;
+	}
+	
+	/**
+	 * Multiplies two sparse matrices of counts, in which null entries are zero
+	 * 
+	 * @param A The left matrix
+	 * @param B The right matrix
+	 * @param modulus The modulus to reduce counts with, null if none
+	 * @return The product A * B
+	 */
+	private static BigInteger[][] multiply( final BigInteger[][] A, final BigInteger[][] B, final BigInteger modulus ) {
+		final BigInteger[][] C = new BigInteger[ A.length ][ B[0].length ];
+		for( int i = 0; i < A.length; i++ )
+			for( int k = 0; k < B.length; k++ ) {
+				if( A[i][k] == null ) continue;
+				for( int j = 0; j < B[k].length; j++ ) {
+					if( B[k][j] == null ) continue;
+					final BigInteger c = A[i][k].multiply( B[k][j] );
+					C[i][j] = C[i][j] == null ? c : C[i][j].add( c );
+				}
+			}
+		if( modulus != null )
+			for( final BigInteger[] row : C )
+				for( int j = 0; j < row.length; j++ )
+					if( row[j] != null ) row[j] = row[j].mod( modulus );
+		return C;
+	}
+	
+	/**
+	 * Applies the transfer of a single fold to a boundary state and adds the
+	 * resulting counts to the new boundary states
+	 * 
+	 * @param T The transfer to apply
+	 * @param placed The number of blocks placed in the boundary state
+	 * @param count The number of configurations that lead to the state
+	 * @param states The new boundary state counts
+	 * @param total The total number of blocks to place
+	 * @param Q The number of states per number of blocks placed
+	 * @param remaining The number of folds that remain after this one
+	 * @param maxplaced The maximum number of blocks placed in a single fold
+	 * @param modulus The modulus to reduce counts with, null if none
+	 */
+	private static void apply( final FoldTransfer T, final int placed, final BigInteger count, final BigInteger[] states, final int total, final int Q, final int remaining, final int maxplaced, final BigInteger modulus ) {
+		for( int i = 0; i < T.placed.length; i++ ) {
+			// we cannot place more blocks than we have, or too few to complete the
+			// configuration in the remaining folds
+			final long p = placed + T.placed[i];
+			if( p > total || (p == total && T.springs[i] > 0) ) continue;
+			if( p + (long)remaining * maxplaced < total - 1 ) continue;
+			
+			final int idx = (int)p * Q + T.springs[i];
+			BigInteger c = count.multiply( T.counts[i] );
+			if( states[ idx ] != null ) c = c.add( states[ idx ] );
+			states[ idx ] = modulus != null ? c.mod( modulus ) : c;
+		}
+	}
+	
+	/**
+	 * The effect of a single fold of the layout on a boundary state. It holds
+	 * all boundary states that can be reached after the fold, relative to the
+	 * blocks placed in the state it started from, and the number of ways in
+	 * which they can be reached.
+	 * 
+	 * @author Joris
+	 */
+	private class FoldTransfer {
+		/** The number of blocks completed during the fold, per reachable state */
+		protected final int[] placed;
+		
+		/** The number of springs of the current block placed, per reachable
+		 *  state */
+		protected final int[] springs;
+		
+		/** The number of ways each state can be reached */
+		protected final BigInteger[] counts;
+		
+		/**
+		 * Computes the transfer of a fold by processing the layout of the fold
+		 * character by character from the given boundary state.
+		 * 
+		 * @param layout The layout of the fold
+		 * @param block The index of the current block within the block set
+		 * @param springcount The number of springs of the current block placed
+		 *   before the fold
+		 */
+		protected FoldTransfer( final String layout, final int block, final int springcount ) {
+			// the states reached so far, keyed by placed blocks and spring count
+			final int Q = blocks.stream( ).mapToInt( x -> x ).max( ).orElse( 0 ) + 1;
+			Map<Long, BigInteger> S = new HashMap<>( );
+			S.put( (long)springcount, BigInteger.ONE );
+			
+			for( int i = 0; i < layout.length( ); i++ ) {
+				final char ch = layout.charAt( i );
+				final Map<Long, BigInteger> Snew = new HashMap<>( );
+				for( final Map.Entry<Long, BigInteger> e : S.entrySet( ) ) {
+					final long p = e.getKey( ) / Q;
+					final int q = (int)(e.getKey( ) % Q);
+					final int size = blocks.get( (int)((block + p) % blocks.size( )) );
+					
+					// treat as empty slot, which ends the current block if any
+					if( ch != '#' ) {
+						if( q == 0 ) Snew.merge( p * Q, e.getValue( ), BigInteger::add );
+						else if( q == size ) Snew.merge( (p + 1) * Q, e.getValue( ), BigInteger::add );
+					}
+					
+					// or as spring, which starts or extends the current block
+					if( ch != '.' && q < size ) Snew.merge( p * Q + q + 1, e.getValue( ), BigInteger::add );
+				}
+				S = Snew;
+			}
+			
+			placed = new int[ S.size( ) ];
+			springs = new int[ S.size( ) ];
+			counts = new BigInteger[ S.size( ) ];
+			int i = 0;
+			for( final Map.Entry<Long, BigInteger> e : S.entrySet( ) ) {
+				placed[i] = (int)(e.getKey( ) / Q);
+				springs[i] = (int)(e.getKey( ) % Q);
+				counts[i] = e.getValue( );
+				i++;
+			}
+		}
 	}
 	
 	/**
@@ -9,8 +9,13 @@ import java.util.List;
  * @author Joris
  */
 public class RockPattern {
-	/** The pattern as a grid */
-	protected final boolean[][] pattern;
+	/** The rows of the pattern, each encoded as a bitmask of words in which
+	 *  bit x is set if there is a rock at column x */
+	protected final long[][] rows;
+	
+	/** The columns of the pattern, each encoded as a bitmask of words in which
+	 *  bit y is set if there is a rock at row y */
+	protected final long[][] columns;
 	
 	/** the width of the grid */
 	protected final int width;
@@ -29,11 +34,15 @@ public class RockPattern {
 		height = lines.length;
 		width = lines[0].length( );
 
-		pattern = new boolean[ width ][ height ];
+		rows = new long[ height ][ (width + 63) / 64 ];
+		columns = new long[ width ][ (height + 63) / 64 ];
 		for( int y = 0; y < lines.length; y++ ) {
 			final String line = lines[y];
-			for( int x = 0; x < line.length( ); x++ )
-				pattern[x][y] = line.charAt( x ) == '#';
+			for( int x = 0; x < line.length( ); x++ ) {
+				if( line.charAt( x ) != '#' ) continue;
+				rows[y][ x >>> 6 ] |= 1L << x;
+				columns[x][ y >>> 6 ] |= 1L << y;
+			}
 		}
 	}
 	
@@ -44,77 +53,100 @@ public class RockPattern {
 	 * @return The score of the single mirror in the rock pattern
 	 */
 	public int getMirrorScore( ) {
-		final List<Mirror> M = findMirrors( );
+		final List<Mirror> M = findMirrors( 0 );
 		return M.isEmpty( ) ? 0 : M.get( 0 ).score;
 	}
 	
+	/**
+	 * Finds all mirrors in the rock pattern that reflect with exactly the given
+	 * number of smudges, i.e., tiles that do not reflect
+	 * 
+	 * @param smudges The number of tiles that do not reflect
+	 * @return The list of all horizontal and vertical mirror positions with
+	 *   exactly the given number of smudges
+	 */
+	public List<Mirror> findMirrors( final int smudges ) {
+		return findMirrors( smudges, true );
+	}
+	
+	/**
+	 * Finds all mirrors in the rock pattern that reflect with at most the given
+	 * number of smudges, i.e., tiles that do not reflect
+	 * 
+	 * @param maxsmudges The maximum number of tiles that do not reflect
+	 * @return The list of all horizontal and vertical mirror positions with at
+	 *   most the given number of smudges
+	 */
+	public List<Mirror> findMirrorsWithin( final int maxsmudges ) {
+		return findMirrors( maxsmudges, false );
+	}
+	
 	/**
 	 * Goes over all columns and rows to find all potential mirrors in the rock
-	 * pattern
+	 * pattern. The number of mismatching tiles is counted once per axis, which
+	 * directly gives the number of smudges that need fixing for the mirror to
+	 * reflect perfectly.
 	 * 
+	 * @param smudges The number of tiles that do not reflect
+	 * @param exact True to only return mirrors with exactly the given number of
+	 *   smudges, false to return all mirrors with at most that many
 	 * @return The list of all valid horizontal and vertical mirror positions
 	 *   given the rock pattern we have.
 	 */
-	private List<Mirror> findMirrors( ) {
+	private List<Mirror> findMirrors( final int smudges, final boolean exact ) {
+		if( smudges < 0 ) throw new RuntimeException( "Invalid number of smudges: " + smudges );
+		
 		// check if there might be vertical mirror
 		final List<Mirror> M = new ArrayList<>( );
 		for( int x = 1; x < width; x++ ) {
-			boolean reflects = true;
-			for( int y = 0; y < height; y++ ) {
-				for( int i = 0; i < width; i++ ) {
-					if( !reflects || x - i - 1 < 0 || x + i >= width ) break;
-					reflects &= pattern[ x - i - 1][ y ] == pattern[ x + i ][ y ];
-				}
-			}
-			if( reflects ) M.add( new Mirror( false, x ) );
+			final int mismatches = countMismatches( columns, x, smudges );
+			if( mismatches == smudges || (!exact && mismatches < smudges) ) M.add( new Mirror( false, x, mismatches ) );
 		}
 
 		// or maybe a horizontal mirror
 		for( int y = 1; y < height; y++ ) {
-			boolean reflects = true;
-			for( int x = 0; x < width; x++ ) {
-				for( int i = 0; i < height; i++ ) {
-					if( !reflects || y - i - 1 < 0 || y + i >= height ) break;
-					reflects &= pattern[ x ][ y - i - 1 ] == pattern[ x ][ y + i ];
-				}
-			}
-			if( reflects ) M.add( new Mirror( true, y ) );
+			final int mismatches = countMismatches( rows, y, smudges );
+			if( mismatches == smudges || (!exact && mismatches < smudges) ) M.add( new Mirror( true, y, mismatches ) );
 		}
 		
 		return M;
 	}
 	
+	/**
+	 * Counts the number of tiles that do not reflect in a mirror placed before
+	 * the given line. Every pair of reflected lines is compared by XOR-ing their
+	 * bitmasks, the number of set bits in the result is the number of tiles
+	 * that differ between them.
+	 * 
+	 * @param lines The rows or columns of the pattern
+	 * @param axis The index of the first line after the mirror
+	 * @param limit The count above which we can stop counting
+	 * @return The number of mismatching tiles, or any value larger than the
+	 *   limit if it exceeds the limit
+	 */
+	private static int countMismatches( final long[][] lines, final int axis, final int limit ) {
+		int mismatches = 0;
+		for( int i = 0; axis - i - 1 >= 0 && axis + i < lines.length; i++ ) {
+			final long[] l1 = lines[ axis - i - 1 ];
+			final long[] l2 = lines[ axis + i ];
+			for( int w = 0; w < l1.length; w++ ) mismatches += Long.bitCount( l1[w] ^ l2[w] );
+			if( mismatches > limit ) return mismatches;
+		}
+		return mismatches;
+	}
+	
 	/**
 	 * Finds the new mirror score that results when any of the single tiles in
-	 * the rock pattern is flipped from '.' to '#' or vice versa. 
+	 * the rock pattern is flipped from '.' to '#' or vice versa. Such a mirror
+	 * is one in which exactly one tile does not reflect.
 	 *   
 	 * @return The new score, i.e., the score of a mirror setup not equal to the
 	 *   mirror setup found with the original pattern 
 	 */
 	public int getMirrorScoreSmudged( ) {
-		// get current mirror setup
-		final Mirror M = findMirrors( ).get( 0 );
-		
-		// try and change the score by fixing a smudge somewhere in the pattern 
-		for( int x = 0; x < width; x++ ) {
-			for( int y = 0; y < height; y++ ) {
-				// flip this coordinate and get all mirror positions
-				pattern[x][y] = !pattern[x][y];	
-				final List<Mirror> Mnew = findMirrors( );
-				pattern[x][y] = !pattern[x][y];
-
-				// remove the previous setup from the list
-				Mnew.remove( M );
-
-				// no mirrors?
-				if( Mnew.isEmpty( ) ) continue;
-				
-				// we have a new setup, stop searching and return its score
-				return Mnew.get( 0 ).score;				
-			}
-		}
-		
-		throw new RuntimeException( "No change in mirror position" );
+		final List<Mirror> M = findMirrors( 1 );
+		if( M.isEmpty( ) ) throw new RuntimeException( "No change in mirror position" );
+		return M.get( 0 ).score;
 	}
 	
 	/**
@@ -124,7 +156,7 @@ public class RockPattern {
 	public String toString( ) {
 		final StringBuilder sb = new StringBuilder( );
 		for( int y = 0; y < height; y++ ) {
-			for( int x = 0; x < width; x++ ) sb.append( pattern[x][y] ? '#' : '.' );
+			for( int x = 0; x < width; x++ ) sb.append( (rows[y][ x >>> 6 ] & (1L << x)) != 0 ? '#' : '.' );
 			if( y < height - 1 ) sb.append( '\n' );
 		}
 		return sb.toString( );
@@ -135,15 +167,18 @@ public class RockPattern {
 	 * 
 	 * @author Joris
 	 */
-	private static class Mirror {
+	public static class Mirror {
 		/** True if the mirror reflects horizontally, false for vertical */
-		protected final boolean horizontal;
+		public final boolean horizontal;
 		
 		/** The row or column index that the mirror is positioned at */
-		protected final int index;
+		public final int index;
+		
+		/** The number of tiles that do not reflect in this mirror */
+		public final int smudges;
 		
 		/** The mirror score */
-		protected final int score;
+		public final int score;
 		
 		/**
 		 * Creates a new mirror setup
@@ -151,10 +186,12 @@ public class RockPattern {
 		 * @param horizontal True for horizontal reflection, false for vertical
 		 * @param index The column index (horizontal) or row index (vertical) of
 		 *   the mirror
+		 * @param smudges The number of tiles that do not reflect
 		 */
-		public Mirror( final boolean horizontal, final int index ) {
+		public Mirror( final boolean horizontal, final int index, final int smudges ) {
 			this.horizontal = horizontal;
 			this.index = index;
+			this.smudges = smudges;
 			this.score = index * (horizontal ? 100 : 1); 
 		}
 
@@ -173,10 +210,16 @@ public class RockPattern {
 			return m.horizontal == horizontal && m.index == index;
 		}
 		
+		/** @return The hash code of the mirror position */
+		@Override
+		public int hashCode( ) {
+			return horizontal ? -index : index;
+		}
+		
 		/** @return The string describing the mirror setup */
 		@Override
 		public String toString( ) {
-			return (horizontal ? "H" : "V") + index;
+			return (horizontal ? "H" : "V") + index + (smudges > 0 ? " (" + smudges + " smudges)" : "");
 		}
 	}
 }
@@ -1,11 +1,9 @@
 package challenges.day14;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-
-import aocutil.geometry.Coord2D;
-import aocutil.grid.CoordGrid;
+import java.util.Random;
+import java.util.stream.IntStream;
 
 /**
  * A platform that positions mirrors using rocks as weights.
@@ -13,17 +11,52 @@ import aocutil.grid.CoordGrid;
  * @author Joris
  */
 public class MirrorPlatform {
-	/** The grid of rocks on the platform */
-	protected CoordGrid<Character> rocks;
+	/** The maximum number of cycles for which the load history is recorded */
+	private static final int MAX_HISTORY = 1 << 22;
+	
+	/** The width of the platform */
+	protected final int width;
+	
+	/** The height of the platform */
+	protected final int height;
+	
+	/** The rocks on the platform per column, the bits of a column are its rows */
+	protected final Bitboard columns;
+	
+	/** The rocks on the platform per row, the bits of a row are its columns */
+	protected final Bitboard rows;
 	
 	/**
 	 * Creates a new platform from a list of strings
 	 * 
-	 * @param grid 
+	 * @param grid The layout of the platform, using 'O' for round rocks, '#'
+	 *   for cube rocks and '.' for empty spaces
 	 */
 	public MirrorPlatform( final List<String> grid ) {
-		this.rocks = CoordGrid.fromCharGrid( grid, '.' );
-		rocks.fixWindow( new Coord2D( 0, 0 ), new Coord2D( grid.get( 0 ).length( ) - 1, grid.size( ) - 1 ) );
+		height = grid.size( );
+		width = grid.get( 0 ).length( );
+		
+		// parse the rocks per row
+		final int rowwords = Bitboard.words( width );
+		final long[] round = new long[ height * rowwords ];
+		final long[] cubes = new long[ height * rowwords ];
+		for( int y = 0; y < height; y++ ) {
+			final String line = grid.get( y );
+			for( int x = 0; x < width; x++ ) {
+				final int bit = y * rowwords * 64 + x;
+				if( line.charAt( x ) == 'O' ) round[ bit >>> 6 ] |= 1L << bit;
+				else if( line.charAt( x ) == '#' ) cubes[ bit >>> 6 ] |= 1L << bit;
+			}
+		}
+		rows = new Bitboard( height, width, round, cubes );
+		
+		// and transpose them to get the column view
+		final int colwords = Bitboard.words( height );
+		final long[] colround = new long[ width * colwords ];
+		final long[] colcubes = new long[ width * colwords ];
+		Bitboard.transpose( round, rowwords, colround, colwords );
+		Bitboard.transpose( cubes, rowwords, colcubes, colwords );
+		columns = new Bitboard( width, height, colround, colcubes );
 	}
 	
 	/**
@@ -39,85 +72,474 @@ public class MirrorPlatform {
 	
 	/**
 	 * Computes the load on the northern support beams after running a given
-	 * number of rotate and tilt cycles
+	 * number of spin cycles
 	 * 
 	 * @param cycles The number of cycles to perform
 	 * @return The load on the northern beams after the cycles completed
 	 */
 	public long getCycledLoad( final long cycles ) {
-		// keep track of seen configurations
-		final Map<String, Long> M = new HashMap<>( );
-		
-		// perform all the cycles!
-		for( long c = 0; c < cycles; c++ ) {
-			// one cycle consists of 4 tilt-rotate steps 
-			for( int r = 0; r < 4; r++ ) {
-				tiltNorth( );
-				rocks = rocks.rotate( 1 );
-			}
+		return findSpinCycle( cycles ).getLoad( cycles );
+	}
 			
-			// check if the rocks end up in a position we have seen before, if so we
-			// know the process is cyclic and we can extrapolate the position of the
-			// rocks at the specified number of cycles
-			final String R = rocks.toString( );
-			if( M.containsKey( R ) ) {
-				// compute the repeat interval and return the load iff we can perform
-				// an integer number of repeated cycles from here to get to the desired
-				// amount of cycles
-				final long interval = c - M.get( R );
-				if( (cycles - c - 1) % interval == 0 ) return getNorthBeamLoad( ); 
-			}
+	/**
+	 * Performs spin cycles until the rock layout repeats itself, or until the
+	 * given number of cycles has been performed. The repetition is found using
+	 * Brent's algorithm, which only requires a single snapshot of the layout.
+	 * Layouts are compared by their Zobrist hash first and only compared
+	 * exactly if their hashes match. The load after every cycle is recorded so
+	 * that the load after any number of cycles can be determined afterwards.
+	 * This history is bounded to MAX_HISTORY cycles, hence an exception is
+	 * thrown if the limit exceeds it and no repetition is found within it.
+	 * 
+	 * @param limit The maximum number of cycles to perform
+	 * @return The load history and period of the spin cycle
+	 */
+	public SpinCycle findSpinCycle( final long limit ) {
+		final long[] zobrist = new long[ rows.round.length * 64 ];
+		final Random rand = new Random( 14 );
+		for( int i = 0; i < zobrist.length; i++ ) zobrist[i] = rand.nextLong( );
+		
+		if( limit < 0 ) throw new RuntimeException( "Invalid number of cycles: " + limit );
+		final int history = (int)Math.min( limit, MAX_HISTORY );
+		long[] loads = new long[ Math.min( 64, history + 1 ) ];
+		loads[0] = getNorthBeamLoad( );
+		
+		// the snapshot of the layout that we compare against
+		final long[] snapshot = rows.round.clone( );
+		long snaphash = hash( zobrist );
+		int power = 1;
+		int period = 0;
+		
+		for( int c = 1; c <= history; c++ ) {
+			cycle( );
+			period++;
+			if( c == loads.length ) loads = Arrays.copyOf( loads, Math.min( c * 2, history + 1 ) );
+			loads[c] = getNorthBeamLoad( );
+			
+			// have we returned to the layout of the snapshot?
+			final long h = hash( zobrist );
+			if( h == snaphash && Arrays.equals( snapshot, rows.round ) )
+				return new SpinCycle( Arrays.copyOf( loads, c + 1 ), c - period, period );
 			
-			// store this position and cycle number for future reference
-			M.put( R, c );
+			// move the snapshot forward whenever the period reaches a power of two
+			if( period == power ) {
+				System.arraycopy( rows.round, 0, snapshot, 0, snapshot.length );
+				snaphash = h;
+				power *= 2;
+				period = 0;
+			}
 		}
 		
-		// no repeating configuration but still completed the cycles, return the
-		// load on the northern beams
-		return getNorthBeamLoad( );
+		// no repetition found within the limit
+		if( limit > history ) throw new RuntimeException( "No repetition of the layout found within " + history + " cycles" );
+		return new SpinCycle( Arrays.copyOf( loads, history + 1 ), history, 0 );
+	}
+	
+	/**
+	 * Computes the Zobrist hash of the positions of the round rocks
+	 * 
+	 * @param zobrist The random key of every bit position
+	 * @return The XOR of the keys of all positions that hold a round rock
+	 */
+	private long hash( final long[] zobrist ) {
+		long h = 0;
+		for( int i = 0; i < rows.round.length; i++ )
+			for( long w = rows.round[i]; w != 0; w &= w - 1 ) h ^= zobrist[ i * 64 + Long.numberOfTrailingZeros( w ) ];
+		return h;
 	}
 
 	/**
-	 * Computes the total load on the north support beams of the platform 
-	 * @return
+	 * Computes the total load on the north support beams of the platform, i.e.,
+	 * the number of round rocks in every row times its distance to the south
+	 * edge
+	 * 
+	 * @return The load on the northern beams
 	 */
 	protected long getNorthBeamLoad( ) {
 		long load = 0;
-		final int rows = rocks.window( ).getHeight( );
-		for( final Coord2D c : rocks.getKeys( ) ) {
-			if( rocks.get( c ) == '#' ) continue;
-			load += rows - c.y; 
-		}
+		for( int y = 0; y < height; y++ ) load += (long)rows.count( y ) * (height - y);
 		return load;
 	}
 	
+	/**
+	 * Performs a single spin cycle, tilting the platform north, west, south and
+	 * then east
+	 */
+	protected void cycle( ) {
+		tiltNorth( );
+		tiltWest( );
+		tiltSouth( );
+		tiltEast( );
+	}
+	
 	/**
 	 * Tilt the grid so that all round rocks in the grid will 'fall' Northward.
 	 * They will be moved as far north as possible, until they hit either another
 	 * rock or the edge.
 	 */
 	protected void tiltNorth( ) {
-		for( int x = rocks.window( ).getMinX( ); x <= rocks.window( ).getMaxX( ); x ++ ) {
-			int free = Integer.MAX_VALUE;
-			for( int y = rocks.window( ).getMinY( ); y <= rocks.window( ).getMaxY( ); y++ ) {
-				final char ch = rocks.get( x, y );
-				if( ch == '.' ) {
-					if( free > y ) free = y;
-				} else if( ch == '#' ) {
-					free = Integer.MAX_VALUE;
-				} else {
-					if( y > free ) {
-						rocks.set( x, free, rocks.unset( new Coord2D( x, y ) ) );
-						free++;
-					}
-				}
-			}
-		}
+		columns.tilt( true );
+		columns.transposeTo( rows );
+	}
+	
+	/** Tilt the grid so that all round rocks roll to the south */
+	protected void tiltSouth( ) {
+		columns.tilt( false );
+		columns.transposeTo( rows );
+	}
+	
+	/** Tilt the grid so that all round rocks roll to the west */
+	protected void tiltWest( ) {
+		rows.tilt( true );
+		rows.transposeTo( columns );
+	}
+	
+	/** Tilt the grid so that all round rocks roll to the east */
+	protected void tiltEast( ) {
+		rows.tilt( false );
+		rows.transposeTo( columns );
 	}
 	
 	/** @return The visual representation of the rock positions as a string */
 	@Override
 	public String toString( ) {
-		return rocks.toString( );
+		final StringBuilder sb = new StringBuilder( );
+		for( int y = 0; y < height; y++ ) {
+			for( int x = 0; x < width; x++ ) sb.append( rows.isSet( rows.round, y, x ) ? 'O' : rows.isSet( rows.cubes, y, x ) ? '#' : '.' );
+			sb.append( '\n' );
+		}
+		return sb.toString( );
+	}
+	
+	/**
+	 * The history of loads of a sequence of spin cycles, which eventually repeats
+	 * itself
+	 * 
+	 * @author Joris
+	 */
+	public static class SpinCycle {
+		/** The load on the northern beams after every cycle, starting at zero */
+		protected final long[] loads;
+		
+		/** A cycle from which on the layouts repeat with the period. This is the
+		 *  cycle of the snapshot that was found to repeat, which may be later
+		 *  than the first cycle of the repetition. If no repetition was found,
+		 *  this is the last recorded cycle */
+		public final int start;
+		
+		/** The number of cycles after which the layout repeats, 0 if unknown */
+		public final int period;
+		
+		/**
+		 * Creates a new spin cycle history
+		 * 
+		 * @param loads The recorded loads
+		 * @param start A cycle from which on the layouts repeat
+		 * @param period The length of the repetition, 0 if none was found
+		 */
+		protected SpinCycle( final long[] loads, final int start, final int period ) {
+			this.loads = loads;
+			this.start = start;
+			this.period = period;
+		}
+		
+		/**
+		 * Determines the load after the given number of cycles
+		 * 
+		 * @param cycles The number of cycles
+		 * @return The load on the northern beams after the cycles
+		 */
+		public long getLoad( final long cycles ) {
+			if( cycles < loads.length ) return loads[ (int)cycles ];
+			if( period == 0 ) throw new RuntimeException( "No load recorded for " + cycles + " cycles" );
+			return loads[ start + (int)((cycles - start) % period) ];
+		}
+		
+		/** @return The number of recorded loads */
+		public int size( ) {
+			return loads.length;
+		}
+		
+		/** @return The description of the spin cycle */
+		@Override
+		public String toString( ) {
+			return "start " + start + ", period " + period;
+		}
+	}
+	
+	/**
+	 * Bitboard view of the platform in which every line (row or column) is
+	 * stored as a sequence of words. The bits of a line hold the positions along
+	 * that line. Because the cube rocks never move, the free segments between
+	 * them are precomputed so that a tilt simply counts the round rocks in
+	 * every segment and packs them to one of its ends.
+	 * 
+	 * @author Joris
+	 */
+	protected static class Bitboard {
+		/** The number of lines in a block of lines that is processed by a single
+		 *  thread, this equals the number of bits in a word so that blocks never
+		 *  share words in the transposed view */
+		private static final int BLOCK_LINES = 64;
+		
+		/** The number of cells below which all lines are processed sequentially */
+		private static final int PARALLEL_THRESHOLD = 1 << 16;
+		
+		/** The number of lines */
+		protected final int lines;
+		
+		/** The number of positions along every line */
+		protected final int length;
+		
+		/** The number of words used per line */
+		protected final int words;
+		
+		/** The positions of the round rocks */
+		protected final long[] round;
+		
+		/** The positions of the cube rocks */
+		protected final long[] cubes;
+		
+		/** The free segments between cube rocks as pairs of start (inclusive)
+		 *  and end (exclusive) bit indices, ordered by line */
+		protected int[] segments;
+		
+		/** The index of the first segment of every line */
+		protected int[] lineseg;
+		
+		/**
+		 * Creates a new bitboard view
+		 * 
+		 * @param lines The number of lines
+		 * @param length The number of positions along each line
+		 * @param round The bits of the round rocks
+		 * @param cubes The bits of the cube rocks
+		 */
+		protected Bitboard( final int lines, final int length, final long[] round, final long[] cubes ) {
+			this.lines = lines;
+			this.length = length;
+			this.words = words( length );
+			this.round = round;
+			this.cubes = cubes;
+			initSegments( );
+		}
+		
+		/**
+		 * Determines the number of words needed to hold the given number of bits
+		 * 
+		 * @param bits The number of bits
+		 * @return The number of words
+		 */
+		protected static int words( final int bits ) {
+			return (bits + 63) / 64;
+		}
+		
+		/**
+		 * Determines the free segments between cube rocks on every line
+		 */
+		private void initSegments( ) {
+			final int[] segs = new int[ 2 * (lines * length + lines) ];
+			lineseg = new int[ lines + 1 ];
+			int n = 0;
+			for( int l = 0; l < lines; l++ ) {
+				lineseg[l] = n / 2;
+				int start = 0;
+				for( int p = 0; p <= length; p++ ) {
+					if( p < length && !isSet( cubes, l, p ) ) continue;
+					
+					// store the segment if it is not empty
+					if( p > start ) {
+						segs[ n++ ] = l * words * 64 + start;
+						segs[ n++ ] = l * words * 64 + p;
+					}
+					start = p + 1;
+				}
+			}
+			lineseg[ lines ] = n / 2;
+			segments = Arrays.copyOf( segs, n );
+		}
+		
+		/**
+		 * Checks whether a bit is set
+		 * 
+		 * @param bits The bits of the view
+		 * @param line The line
+		 * @param pos The position on the line
+		 * @return True iff the bit is set
+		 */
+		protected boolean isSet( final long[] bits, final int line, final int pos ) {
+			final int bit = line * words * 64 + pos;
+			return (bits[ bit >>> 6 ] & (1L << bit)) != 0;
+		}
+		
+		/**
+		 * Counts the number of round rocks on a line
+		 * 
+		 * @param line The line
+		 * @return The number of round rocks
+		 */
+		protected int count( final int line ) {
+			int count = 0;
+			for( int w = line * words; w < (line + 1) * words; w++ ) count += Long.bitCount( round[w] );
+			return count;
+		}
+		
+		/**
+		 * Tilts all lines so that their round rocks roll to either end of the
+		 * free segment they are in. Every line is independent of the others, so
+		 * on large platforms the lines are tilted in parallel in fixed blocks of
+		 * lines.
+		 * 
+		 * @param tostart True to roll towards the start of the line, false to
+		 *   roll towards the end
+		 */
+		protected void tilt( final boolean tostart ) {
+			if( lines * length < PARALLEL_THRESHOLD ) {
+				tilt( 0, lines, tostart );
+				return;
+			}
+			
+			IntStream.range( 0, (lines + BLOCK_LINES - 1) / BLOCK_LINES ).parallel( ).forEach(
+				b -> tilt( b * BLOCK_LINES, Math.min( lines, (b + 1) * BLOCK_LINES ), tostart ) );
+		}
+		
+		/**
+		 * Tilts a range of lines
+		 * 
+		 * @param fromline The first line to tilt (inclusive)
+		 * @param toline The last line to tilt (exclusive)
+		 * @param tostart True to roll towards the start of the line, false to
+		 *   roll towards the end
+		 */
+		private void tilt( final int fromline, final int toline, final boolean tostart ) {
+			for( int s = 2 * lineseg[ fromline ]; s < 2 * lineseg[ toline ]; s += 2 ) {
+				final int from = segments[s];
+				final int to = segments[ s + 1 ];
+				final int n = countRange( round, from, to );
+				clearRange( round, from, to );
+				if( tostart ) setRange( round, from, from + n );
+				else setRange( round, to - n, to );
+			}
+		}
+
+		/**
+		 * Writes the round rocks of this view into the other, transposed view
+		 * 
+		 * @param other The view to update
+		 */
+		protected void transposeTo( final Bitboard other ) {
+			if( lines * length < PARALLEL_THRESHOLD ) {
+				transpose( round, words, other.round, other.words );
+				return;
+			}
+			
+			// every block of lines writes to its own word in the lines of the
+			// transposed view, hence the blocks can be transposed in parallel
+			IntStream.range( 0, (lines + BLOCK_LINES - 1) / BLOCK_LINES ).parallel( ).forEach(
+				b -> transpose( round, words, b * BLOCK_LINES, Math.min( lines, (b + 1) * BLOCK_LINES ), other.round, other.words ) );
+		}
+		
+		/**
+		 * Transposes the bits of a view into another array by iterating over the
+		 * set bits only
+		 * 
+		 * @param src The bits of the source view
+		 * @param srcwords The number of words per line in the source view
+		 * @param dst The bits of the transposed view
+		 * @param dstwords The number of words per line in the transposed view
+		 */
+		protected static void transpose( final long[] src, final int srcwords, final long[] dst, final int dstwords ) {
+			Arrays.fill( dst, 0 );
+			for( int i = 0; i < src.length; i++ ) {
+				final int line = i / srcwords;
+				final int base = (i % srcwords) * 64;
+				for( long w = src[i]; w != 0; w &= w - 1 ) {
+					final int pos = base + Long.numberOfTrailingZeros( w );
+					dst[ pos * dstwords + (line >>> 6) ] |= 1L << line;
+				}
+			}
+		}
+		
+		/**
+		 * Transposes a block of 64 lines of a view into the single word of the
+		 * transposed lines that holds them
+		 * 
+		 * @param src The bits of the source view
+		 * @param srcwords The number of words per line in the source view
+		 * @param fromline The first line of the block, a multiple of 64
+		 * @param toline The last line of the block (exclusive)
+		 * @param dst The bits of the transposed view
+		 * @param dstwords The number of words per line in the transposed view
+		 */
+		private static void transpose( final long[] src, final int srcwords, final int fromline, final int toline, final long[] dst, final int dstwords ) {
+			final int word = fromline >>> 6;
+			for( int i = word; i < dst.length; i += dstwords ) dst[i] = 0;
+			
+			for( int line = fromline; line < toline; line++ )
+				for( int i = 0; i < srcwords; i++ )
+					for( long w = src[ line * srcwords + i ]; w != 0; w &= w - 1 ) {
+						final int pos = i * 64 + Long.numberOfTrailingZeros( w );
+						dst[ pos * dstwords + word ] |= 1L << line;
+					}
+		}
+		
+		/**
+		 * Counts the set bits in a range
+		 * 
+		 * @param bits The bits
+		 * @param from The first bit index (inclusive)
+		 * @param to The last bit index (exclusive)
+		 * @return The number of set bits in the range
+		 */
+		private static int countRange( final long[] bits, final int from, final int to ) {
+			final int fw = from >>> 6;
+			final int tw = (to - 1) >>> 6;
+			if( fw == tw ) return Long.bitCount( bits[fw] & (-1L << from) & (-1L >>> -to) );
+			
+			int count = Long.bitCount( bits[fw] & (-1L << from) ) + Long.bitCount( bits[tw] & (-1L >>> -to) );
+			for( int w = fw + 1; w < tw; w++ ) count += Long.bitCount( bits[w] );
+			return count;
+		}
+		
+		/**
+		 * Sets all bits in a range
+		 * 
+		 * @param bits The bits
+		 * @param from The first bit index (inclusive)
+		 * @param to The last bit index (exclusive)
+		 */
+		private static void setRange( final long[] bits, final int from, final int to ) {
+			if( from >= to ) return;
+			final int fw = from >>> 6;
+			final int tw = (to - 1) >>> 6;
+			if( fw == tw ) {
+				bits[fw] |= (-1L << from) & (-1L >>> -to);
+				return;
+			}
+			
+			bits[fw] |= -1L << from;
+			for( int w = fw + 1; w < tw; w++ ) bits[w] = -1L;
+			bits[tw] |= -1L >>> -to;
+		}
+		
+		/**
+		 * Clears all bits in a range
+		 * 
+		 * @param bits The bits
+		 * @param from The first bit index (inclusive)
+		 * @param to The last bit index (exclusive)
+		 */
+		private static void clearRange( final long[] bits, final int from, final int to ) {
+			final int fw = from >>> 6;
+			final int tw = (to - 1) >>> 6;
+			if( fw == tw ) {
+				bits[fw] &= ~((-1L << from) & (-1L >>> -to));
+				return;
+			}
+			
+			bits[fw] &= ~(-1L << from);
+			for( int w = fw + 1; w < tw; w++ ) bits[w] = 0;
+			bits[tw] &= ~(-1L >>> -to);
+		}
 	}
 }
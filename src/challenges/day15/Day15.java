@@ -1,6 +1,9 @@
 package challenges.day15;
 
-import aocutil.io.FileReader;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 public class Day15 {
 
@@ -13,8 +16,10 @@ public class Day15 {
 	 * @throws Exception
 	 */
 	public static void main( final String[] args ) throws Exception {
-		final String ex_input = new FileReader( Day15.class.getResource( "example.txt" ) ).readLines( ).get( 0 );
-		final String input = new FileReader( Day15.class.getResource( "input.txt" ) ).readLines( ).get( 0 );
+		// the input is a single, possibly very long line, so stream it rather
+		// than reading it into memory
+		final URL ex_input = Day15.class.getResource( "example.txt" );
+		final URL input = Day15.class.getResource( "input.txt" );
 		
 		System.out.println( "---[ Part 1 ]---" );
 		System.out.println( "Example: " + part1( ex_input ) );
@@ -28,27 +33,32 @@ public class Day15 {
 	/**
 	 * Computes the sum of hash codes for all strings in the input
 	 * 
-	 * @param input A list of comma-separated strings
+	 * @param input The resource that holds a list of comma-separated strings
 	 * @return The sum of hash codes for each of the strings
+	 * @throws IOException if the input could not be read
 	 */
-	private static long part1( final String input ) {
-		long sum = 0;
-		for( final String in : input.split( "," ) ) {
-			sum += LensBoxes.hash( in );
+	private static long part1( final URL input ) throws IOException {
+		final LensCommandStream LS = new LensCommandStream( );
+		try( final ReadableByteChannel channel = Channels.newChannel( input.openStream( ) ) ) {
+			LS.process( channel );
 		}
-		return sum;
+		return LS.getHashSum( );
 	}
 	
 	/**
 	 * Adds, updates and removes lenses from a set of hash-indexed boxes, almost
 	 * like a plain old hash map...
 	 * 
-	 * @param input The set of instructions to perform on the list
+	 * @param input The resource that holds the set of instructions to perform
+	 *   on the list
 	 * @return The total focus power after performing all lens operations
+	 * @throws IOException if the input could not be read
 	 */
-	private static long part2( final String input ) {
+	private static long part2( final URL input ) throws IOException {
 		final LensBoxes LB = new LensBoxes( );
-		for( final String in : input.split( "," ) ) LB.execute( in );
+		try( final ReadableByteChannel channel = Channels.newChannel( input.openStream( ) ) ) {
+			new LensCommandStream( LB ).process( channel );
+		}
 		return LB.getFocusPower( );
 	}
 }
\ No newline at end of file
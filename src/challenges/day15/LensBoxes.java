@@ -1,9 +1,6 @@
 package challenges.day15;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
 
 import aocutil.object.LabeledObject;
 
@@ -13,17 +10,38 @@ import aocutil.object.LabeledObject;
  * @author Joris
  */
 public class LensBoxes {
-	/** The boxes containing the lenses, mapped by their index (Java does not
-	 *  allow arrays of lists) */
-	protected final Map<Integer, List<Lens>> boxes;
+	/** The boxes containing the lenses */
+	protected final LensBox[] boxes;
 
+	/** The multiplier used by the label hash function */
+	protected final int multiplier;
+	
+	/** The bit mask that maps a hash value onto a box index */
+	protected final int mask;
+	
 	/**
-	 * Creates a new boxed lens setup
+	 * Creates a new boxed lens setup of 256 boxes, using the original HASH
+	 * algorithm
 	 */
 	public LensBoxes( ) {
-		boxes = new HashMap<>( 256 );
-		for( int i = 0; i < 256; i++ )
-			boxes.put( i, new ArrayList<>( ) );
+		this( 256, 17 );
+	}
+	
+	/**
+	 * Creates a new boxed lens setup with a configurable number of boxes and
+	 * label hash function
+	 * 
+	 * @param boxcount The number of boxes, must be a power of two
+	 * @param multiplier The multiplier used in the hash function, preferably
+	 *   an odd number so that no information is lost
+	 */
+	public LensBoxes( final int boxcount, final int multiplier ) {
+		if( boxcount <= 0 || Integer.bitCount( boxcount ) != 1 ) throw new RuntimeException( "The number of boxes must be a power of two: " + boxcount );
+		
+		this.multiplier = multiplier;
+		this.mask = boxcount - 1;
+		boxes = new LensBox[ boxcount ];
+		for( int i = 0; i < boxes.length; i++ ) boxes[i] = new LensBox( );
 	}
 	
 	/**
@@ -40,7 +58,7 @@ public class LensBoxes {
 		} else {
 			// add or update a lens
 			final int idx = lcmd.indexOf( "=" );
-			add( new Lens( lcmd.substring( 0, idx ), Integer.parseInt( lcmd.substring( idx + 1 ) ) ) );
+			add( lcmd.substring( 0, idx ), Integer.parseInt( lcmd.substring( idx + 1 ) ) );
 		}		
 	}
 	
@@ -49,20 +67,33 @@ public class LensBoxes {
 	 * label is present, that one will be replaced. Otherwise a new lens will be
 	 * added at the end of the box
 	 * 
-	 * @param lens The lens to add/update
+	 * @param label The label of the lens to add/update
+	 * @param strength The focal strength of the lens
 	 */
-	private void add( final Lens lens ) {
-		final List<Lens> box = getBoxFromLabel( lens.getLabel( ) );
-		
-		// if the label is already present, replace the lens
-		for( int i = box.size( ) - 1; i  >= 0; i-- )
-			if( box.get( i ).getLabel( ).equals( lens.getLabel( ) ) ) {
-				box.set( i, lens );
-				return;
-			}
-			
-		// the lens was not present, add it
-		box.add( lens );
+	private void add( final String label, final int strength ) {
+		final LensBox box = boxes[ getBoxIndex( label ) ];
+		final int hash = label.hashCode( );
+		final int slot = box.find( label, hash );
+		if( box.index[ slot ] != null ) box.index[ slot ].strength = strength;
+		else box.insert( slot, new Lens( label, hash, strength ) );
+	}
+	
+	/**
+	 * Adds/sets a lens given its label as a sequence of bytes, without creating
+	 * a String unless the lens is new to its box
+	 * 
+	 * @param box The index of the box, i.e., the hash value of the label as
+	 *   computed by getBoxIndex
+	 * @param label The buffer that holds the label bytes
+	 * @param length The length of the label
+	 * @param hash The hash code of the label, equal to that of its String
+	 * @param strength The focal strength of the lens
+	 */
+	protected void add( final int box, final byte[] label, final int length, final int hash, final int strength ) {
+		final LensBox B = boxes[ box ];
+		final int slot = B.find( label, length, hash );
+		if( B.index[ slot ] != null ) B.index[ slot ].strength = strength;
+		else B.insert( slot, new Lens( new String( label, 0, length, StandardCharsets.ISO_8859_1 ), hash, strength ) );
 	}
 	
 	/**
@@ -72,19 +103,33 @@ public class LensBoxes {
 	 * @param label The label of the lenses to remove
 	 */
 	private void remove( final String label ) {
-		final List<Lens> box = getBoxFromLabel( label );
-		for( int i = box.size( ) - 1; i  >= 0; i-- )
-			if( box.get( i ).getLabel( ).equals( label ) ) box.remove( i );		
+		final LensBox box = boxes[ getBoxIndex( label ) ];
+		box.remove( box.find( label, label.hashCode( ) ) );
 	}
 	
 	/**
-	 * Determines the box for the given lens label
+	 * Removes the lens with the given label, given as a sequence of bytes, from
+	 * its box. If no such lens is found, nothing happens.
+	 * 
+	 * @param box The index of the box, i.e., the hash value of the label as
+	 *   computed by getBoxIndex
+	 * @param label The buffer that holds the label bytes
+	 * @param length The length of the label
+	 * @param hash The hash code of the label, equal to that of its String
+	 */
+	protected void remove( final int box, final byte[] label, final int length, final int hash ) {
+		final LensBox B = boxes[ box ];
+		B.remove( B.find( label, length, hash ) );
+	}
+	
+	/**
+	 * Determines the index of the box for the given lens label
 	 * 
 	 * @param label The label of the lens
-	 * @return The box it should be in
+	 * @return The index of the box it should be in
 	 */
-	private List<Lens> getBoxFromLabel( final String label ) {
-		return boxes.get( hash( label ) );
+	public int getBoxIndex( final String label ) {
+		return hash( label, multiplier, mask );
 	}
 	
 	/**
@@ -95,14 +140,34 @@ public class LensBoxes {
 	 */
 	public long getFocusPower( ) {
 		long power = 0;
-		for( final int i : boxes.keySet( ) ) {
-			final List<Lens> box = boxes.get( i );
-			for( int j = 0; j < box.size( ); j++ )
-				power += (i + 1) * (j + 1) * box.get( j ).strength;
+		for( int i = 0; i < boxes.length; i++ ) {
+			int j = 1;
+			for( Lens lens = boxes[i].head; lens != null; lens = lens.next )
+				power += (long)(i + 1) * (j++) * lens.strength;
 		}
 		return power;
 	}
 	
+	/**
+	 * Determines the number of lenses in every box
+	 * 
+	 * @return The number of lenses per box
+	 */
+	public int[] getOccupancy( ) {
+		final int[] occ = new int[ boxes.length ];
+		for( int i = 0; i < boxes.length; i++ ) occ[i] = boxes[i].size;
+		return occ;
+	}
+	
+	/**
+	 * Computes statistics on the distribution of lenses over the boxes
+	 * 
+	 * @return The occupancy statistics
+	 */
+	public Occupancy getOccupancyStats( ) {
+		return new Occupancy( getOccupancy( ) );
+	}
+	
 	/**
 	 * Computes the hash value for a given string
 	 * 
@@ -110,10 +175,24 @@ public class LensBoxes {
 	 * @return Its hash value [0,255]
 	 */
 	public static int hash( final String input ) {
+		return hash( input, 17, 255 );
+	}
+	
+	/**
+	 * Computes the generalised hash value for a given string, which adds every
+	 * character to the current value and multiplies it by the multiplier
+	 * 
+	 * @param input The input string
+	 * @param multiplier The multiplier
+	 * @param mask The bit mask to apply after every character, i.e., the
+	 *   number of possible hash values minus one
+	 * @return Its hash value [0,mask]
+	 */
+	public static int hash( final String input, final int multiplier, final int mask ) {
 		int current = 0;
 		for( int i = 0; i < input.length( ); i++ ) {
 			current += (int)input.charAt( i );
-			current = (current * 17) % 256;
+			current = (current * multiplier) & mask;
 		}
 		return current;
 	}
@@ -124,14 +203,224 @@ public class LensBoxes {
 	@Override
 	public String toString( ) {
 		final StringBuilder sb = new StringBuilder( );
-		for( final int boxidx : boxes.keySet( ) ) {
-			final List<Lens> box = boxes.get( boxidx );
-			if( !box.isEmpty( ) ) sb.append( "[Box " + boxidx + "] " + box + "\n" );
-		}
+		for( int boxidx = 0; boxidx < boxes.length; boxidx++ )
+			if( boxes[ boxidx ].size > 0 ) sb.append( "[Box " + boxidx + "] " + boxes[ boxidx ] + "\n" );
 		return sb.toString( );
 	}
 
 	
+	/**
+	 * Statistics on the number of lenses per box, which show how well the hash
+	 * function distributes the labels
+	 * 
+	 * @author Joris
+	 */
+	public static class Occupancy {
+		/** The number of boxes */
+		public final int boxes;
+		
+		/** The total number of lenses */
+		public final long lenses;
+		
+		/** The number of boxes that hold at least one lens */
+		public final int occupied;
+		
+		/** The largest number of lenses in a single box */
+		public final int maximum;
+		
+		/** The sum of squared box sizes */
+		private final long sumsquares;
+		
+		/**
+		 * Computes the statistics of the given box sizes
+		 * 
+		 * @param sizes The number of lenses per box
+		 */
+		protected Occupancy( final int[] sizes ) {
+			long total = 0;
+			long squares = 0;
+			int used = 0;
+			int max = 0;
+			for( final int n : sizes ) {
+				total += n;
+				squares += (long)n * n;
+				if( n > 0 ) used++;
+				max = Math.max( max, n );
+			}
+			
+			boxes = sizes.length;
+			lenses = total;
+			occupied = used;
+			maximum = max;
+			sumsquares = squares;
+		}
+		
+		/** @return The average number of lenses per box */
+		public double getMean( ) {
+			return lenses / (double)boxes;
+		}
+		
+		/** @return The variance of the number of lenses per box */
+		public double getVariance( ) {
+			final double mean = getMean( );
+			return sumsquares / (double)boxes - mean * mean;
+		}
+		
+		/**
+		 * Determines the average number of lenses in the box of a lens, i.e., the
+		 * expected size of the box that has to be searched for a lens. This is 1
+		 * if no two lenses share a box
+		 * 
+		 * @return The average box size per lens, 0 if there are no lenses
+		 */
+		public double getMeanCollisionSize( ) {
+			return lenses == 0 ? 0 : sumsquares / (double)lenses;
+		}
+		
+		/** @return The description of the occupancy */
+		@Override
+		public String toString( ) {
+			return lenses + " lenses in " + occupied + "/" + boxes + " boxes, max " + maximum + ", mean " + getMean( ) + ", variance " + getVariance( );
+		}
+	}
+	
+	/**
+	 * A single box that holds lenses in the order in which they were added. The
+	 * lenses form a doubly linked list to keep their order, and are indexed by
+	 * their label in an open-addressing hash table so that lenses can be found,
+	 * replaced and removed in constant time.
+	 * 
+	 * @author Joris
+	 */
+	private static class LensBox {
+		/** The first lens in the box */
+		protected Lens head;
+		
+		/** The last lens in the box */
+		protected Lens tail;
+		
+		/** The number of lenses in the box */
+		protected int size;
+		
+		/** The lens index, using linear probing on the label hash code */
+		protected Lens[] index;
+		
+		/**
+		 * Creates a new, empty box
+		 */
+		public LensBox( ) {
+			index = new Lens[ 8 ];
+			size = 0;
+		}
+		
+		/**
+		 * Finds the slot of the lens with the given label in the index
+		 * 
+		 * @param label The label of the lens
+		 * @param hash The hash code of the label
+		 * @return The slot that holds the lens, or the empty slot in which it
+		 *   should be inserted if it is not in the box
+		 */
+		public int find( final String label, final int hash ) {
+			int slot = slot( hash );
+			while( index[ slot ] != null && !(index[ slot ].hash == hash && index[ slot ].getLabel( ).equals( label )) )
+				slot = (slot + 1) & (index.length - 1);
+			return slot;
+		}
+			
+		/**
+		 * Finds the slot of the lens with the given label in the index
+		 * 
+		 * @param label The buffer that holds the label bytes
+		 * @param length The length of the label
+		 * @param hash The hash code of the label
+		 * @return The slot that holds the lens, or the empty slot in which it
+		 *   should be inserted if it is not in the box
+		 */
+		public int find( final byte[] label, final int length, final int hash ) {
+			int slot = slot( hash );
+			while( index[ slot ] != null && !(index[ slot ].hash == hash && index[ slot ].matches( label, length )) )
+				slot = (slot + 1) & (index.length - 1);
+			return slot;
+		}
+		
+		/**
+		 * Adds a new lens to the end of the box
+		 * 
+		 * @param slot The empty index slot to store the lens in, as found by find
+		 * @param lens The lens to add
+		 */
+		public void insert( final int slot, final Lens lens ) {
+			index[ slot ] = lens;
+			lens.prev = tail;
+			if( tail != null ) tail.next = lens; else head = lens;
+			tail = lens;
+			size++;
+			
+			// keep the index at most half full to keep probe sequences short
+			if( 2 * size > index.length ) resize( );
+		}
+		
+		/**
+		 * Removes the lens in the given slot from the box, if any
+		 * 
+		 * @param slot The index slot of the lens, as found by find
+		 */
+		public void remove( final int slot ) {
+			if( index[ slot ] == null ) return;
+			
+			// unlink it from the list
+			final Lens lens = index[ slot ];
+			if( lens.prev != null ) lens.prev.next = lens.next; else head = lens.next;
+			if( lens.next != null ) lens.next.prev = lens.prev; else tail = lens.prev;
+			size--;
+			
+			// and remove it from the index by shifting back any lens that follows
+			// in the probe sequence and could be stored in the freed slot
+			final int mask = index.length - 1;
+			int free = slot;
+			for( int next = (free + 1) & mask; index[ next ] != null; next = (next + 1) & mask ) {
+				final int home = slot( index[ next ].hash );
+				if( ((next - home) & mask) >= ((next - free) & mask) ) {
+					index[ free ] = index[ next ];
+					free = next;
+				}
+			}
+			index[ free ] = null;
+		}
+		
+		/**
+		 * Determines the preferred slot of a label hash in the index
+		 * 
+		 * @param hash The hash code of the label
+		 * @return The slot
+		 */
+		private int slot( final int hash ) {
+			return (hash ^ (hash >>> 16)) & (index.length - 1);
+		}
+		
+		/**
+		 * Doubles the capacity of the index and re-inserts all lenses
+		 */
+		private void resize( ) {
+			index = new Lens[ index.length * 2 ];
+			for( Lens lens = head; lens != null; lens = lens.next ) {
+				int slot = slot( lens.hash );
+				while( index[ slot ] != null ) slot = (slot + 1) & (index.length - 1);
+				index[ slot ] = lens;
+			}
+		}
+		
+		/** @return The lenses in the box, in order */
+		@Override
+		public String toString( ) {
+			final StringBuilder sb = new StringBuilder( "[" );
+			for( Lens lens = head; lens != null; lens = lens.next )
+				sb.append( lens + (lens.next != null ? ", " : "") );
+			return sb.append( "]" ).toString( );
+		}
+	}
+	
 	/**
 	 * Holds a single lens
 	 * 
@@ -139,19 +428,44 @@ public class LensBoxes {
 	 */	
 	private static class Lens extends LabeledObject {
 		/** The focal strength */
-		protected final int strength;
+		protected int strength;
+		
+		/** The hash code of the label */
+		protected final int hash;
+		
+		/** The previous lens in the box */
+		protected Lens prev;
+		
+		/** The next lens in the box */
+		protected Lens next;
 		
 		/**
 		 * Creates a new lens
 		 * 
 		 * @param label The lens label
+		 * @param hash The hash code of the label
 		 * @param strength The focal strength
 		 */
-		public Lens( final String label, final int strength ) {
+		public Lens( final String label, final int hash, final int strength ) {
 			super( label );
+			this.hash = hash;
 			this.strength = strength;
 		}
 		
+		/**
+		 * Checks whether the label of this lens equals the given bytes
+		 * 
+		 * @param bytes The buffer that holds the label bytes
+		 * @param length The length of the label
+		 * @return True iff the label consists of exactly those bytes
+		 */
+		protected boolean matches( final byte[] bytes, final int length ) {
+			if( label.length( ) != length ) return false;
+			for( int i = 0; i < length; i++ )
+				if( label.charAt( i ) != (bytes[i] & 0xFF) ) return false;
+			return true;
+		}
+		
 		/** @return The lens label and strength as a single string */
 		@Override
 		public String toString( ) {
@@ -0,0 +1,149 @@
+package challenges.day15;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Processes a comma-separated sequence of lens commands directly from a byte
+ * channel, so that the sequence never has to be held in memory. The hash of
+ * every step and of its label are computed while scanning its bytes and the
+ * commands are dispatched to the boxes without creating any Strings, except
+ * for the labels of lenses that are new to their box.
+ * 
+ * @author Joris
+ */
+public class LensCommandStream {
+	/** The boxes to execute the commands on, null to only hash the steps */
+	protected final LensBoxes boxes;
+	
+	/** The scratch buffer that holds the label of the current step */
+	private byte[] label;
+	
+	/** The sum of the hash values of all steps processed so far */
+	private long hashsum;
+	
+	/** The number of steps processed so far */
+	private long steps;
+	
+	/**
+	 * Creates a new stream processor that only hashes the steps
+	 */
+	public LensCommandStream( ) {
+		this( null );
+	}
+	
+	/**
+	 * Creates a new stream processor that executes all commands on the given
+	 * boxes
+	 * 
+	 * @param boxes The lens boxes
+	 */
+	public LensCommandStream( final LensBoxes boxes ) {
+		this.boxes = boxes;
+		label = new byte[ 16 ];
+		hashsum = 0;
+		steps = 0;
+	}
+	
+	/**
+	 * Reads and processes all steps from the channel until it is exhausted.
+	 * Line breaks end the current step just like a comma, so a step never
+	 * spans multiple lines and every line may hold its own sequence of steps.
+	 * 
+	 * @param channel The channel to read the steps from
+	 * @throws IOException if reading from the channel failed
+	 */
+	public void process( final ReadableByteChannel channel ) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate( 1 << 16 );
+		
+		// the state of the step that is currently being scanned
+		int stephash = 0;
+		int boxhash = 0;
+		int labelhash = 0;
+		int length = 0;
+		int value = 0;
+		byte op = 0;
+		boolean empty = true;
+		
+		// the hash function that selects the box of a label
+		final int multiplier = boxes != null ? boxes.multiplier : 17;
+		final int mask = boxes != null ? boxes.mask : 0xFF;
+		
+		while( channel.read( buffer ) != -1 ) {
+			buffer.flip( );
+			while( buffer.hasRemaining( ) ) {
+				final byte b = buffer.get( );
+				
+				// end of the step, dispatch it and reset the state
+				if( b == ',' || b == '\n' || b == '\r' ) {
+					if( !empty ) dispatch( stephash, op, boxhash, length, labelhash, value );
+					stephash = boxhash = labelhash = length = value = 0;
+					op = 0;
+					empty = true;
+					continue;
+				}
+				
+				empty = false;
+				stephash = ((stephash + (b & 0xFF)) * 17) & 0xFF;
+				
+				// without boxes the steps are only hashed, they need not be commands
+				if( boxes == null ) continue;
+				
+				if( op == 0 ) {
+					if( b == '=' || b == '-' ) {
+						op = b;
+						continue;
+					}
+					
+					// extend the label and its hashes
+					if( length == label.length ) label = Arrays.copyOf( label, length * 2 );
+					label[ length++ ] = b;
+					boxhash = ((boxhash + (b & 0xFF)) * multiplier) & mask;
+					labelhash = 31 * labelhash + (b & 0xFF);
+				} else if( op == '=' ) {
+					if( b < '0' || b > '9' ) throw new RuntimeException( "Invalid focal strength in step " + (steps + 1) );
+					if( value > (Integer.MAX_VALUE - (b - '0')) / 10 ) throw new RuntimeException( "Focal strength out of range in step " + (steps + 1) );
+					value = value * 10 + (b - '0');
+				} else {
+					throw new RuntimeException( "Unexpected symbol after remove operation in step " + (steps + 1) );
+				}
+			}
+			buffer.clear( );
+		}
+		
+		// the last step need not be followed by a comma or line break
+		if( !empty ) dispatch( stephash, op, boxhash, length, labelhash, value );
+	}
+	
+	/**
+	 * Processes a single, completely scanned step
+	 * 
+	 * @param stephash The hash value of the entire step
+	 * @param op The operation, '=' or '-'
+	 * @param box The box hash value of the label, i.e., the index of its box
+	 * @param length The length of the label
+	 * @param labelhash The hash code of the label
+	 * @param value The focal strength, only used when adding a lens
+	 */
+	private void dispatch( final int stephash, final byte op, final int box, final int length, final int labelhash, final int value ) {
+		hashsum += stephash;
+		steps++;
+		if( boxes == null ) return;
+		
+		if( op == '-' ) boxes.remove( box, label, length, labelhash );
+		else if( op == '=' ) boxes.add( box, label, length, labelhash, value );
+		else throw new RuntimeException( "Missing operation in step " + steps );
+	}
+	
+	/** @return The sum of the hash values of all steps processed so far */
+	public long getHashSum( ) {
+		return hashsum;
+	}
+	
+	/** @return The number of steps processed so far */
+	public long getStepCount( ) {
+		return steps;
+	}
+}
@@ -1,14 +1,12 @@
 package challenges.day16;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import aocutil.geometry.Coord2D;
 import aocutil.geometry.Direction;
-import aocutil.geometry.Window2D;
-import aocutil.grid.CoordGrid;
 
 /**
  * A cave with a maze of mirrors that reflect lasers
@@ -16,8 +14,20 @@ import aocutil.grid.CoordGrid;
  * @author Joris
  */
 public class MirrorMaze {
-	/** The layout of the mirror maze as a 2D grid */
-	protected final CoordGrid<Character> mirrors;
+	/** The width of the maze */
+	protected final int width;
+	
+	/** The height of the maze */
+	protected final int height;
+	
+	/** The maze tiles as an array of characters, indexed by y * width + x */
+	protected final byte[] tiles;
+	
+	/** The direction ordinals of beams */
+	protected static final int N = 0, E = 1, S = 2, W = 3;
+	
+	/** The number of epochs after which a visited buffer has to be cleared */
+	private static final int MAX_EPOCH = 1 << 27;
 	
 	/**
 	 * Creates a new mirror maze from the grid input
@@ -25,9 +35,12 @@ public class MirrorMaze {
 	 * @param maze The list of string that describe the layout of the mirror maze
 	 */
 	public MirrorMaze( final List<String> maze ) {
-		// parse grid and make sure its size stays equal to the input
-		this.mirrors = CoordGrid.fromCharGrid( maze, '.' );
-		this.mirrors.fixWindow( new Coord2D( 0, 0 ), new Coord2D( maze.get( 0 ).length( ) - 1, maze.size( ) - 1 ) );
+		// store the grid as a compact array of tiles
+		width = maze.get( 0 ).length( );
+		height = maze.size( );
+		tiles = new byte[ width * height ];
+		for( int y = 0; y < height; y++ )
+			for( int x = 0; x < width; x++ ) tiles[ y * width + x ] = (byte)maze.get( y ).charAt( x );
 	}
 	
 	/**
@@ -41,164 +54,590 @@ public class MirrorMaze {
 	 *   reflections
 	 */
 	public long countEnergised( final Coord2D start, final Direction dir ) {
-		// fire the laser beam from the given origin in the specified direction and
-		// keep track of all positions visited during its projection
-		final Set<Laser> visited = new HashSet<>( );
-		fire( new Laser( start, dir ), visited );
-		
-		// get unique visits per tile using a set. That is, we are no longer
-		// interested in direction, only position of the lasers. Using a set of
-		// coordinates will filter all duplicate positions
-		final Set<Coord2D> C = new HashSet<>( );
-		for( final Laser v : visited ) C.add( v.pos );		
-		return C.size( );
+		if( start.x < 0 || start.x >= width || start.y < 0 || start.y >= height ) return 0;
+		
+		final int d;
+		switch( dir ) {
+			case North: d = N; break;
+			case East: d = E; break;
+			case South: d = S; break;
+			case West: d = W; break;
+			default: throw new RuntimeException( "Unknown direction: " + dir );
+		}
+		return new Scratch( ).simulate( 4 * (start.y * width + start.x) + d );
+	}
+	
+	/**
+	 * Simulates the firing of a laser by continuously moving its front particle
+	 * in the direction it is facing until it encounters any mirror that reflects
+	 * or splits the beam. A mirror simply changes the direction of the beam,
+	 * whereas a splitter continues the beam in one of the directions and pushes
+	 * the other beam onto a work stack for later simulation. A beam stops when
+	 * it goes outside of the cave bounds or it ends up in a cycle, i.e., a
+	 * position and direction that we've already seen in the simulation. The
+	 * number of energised tiles is counted while marking the visited directions
+	 * per tile.
+	 * 
+	 * The visited buffer holds the epoch of the simulation that last visited a
+	 * tile above the bitmask of visited directions. A mark of an older epoch
+	 * counts as not visited, hence the buffer can be reused for another
+	 * simulation without clearing it.
+	 * 
+	 * @param state The initial beam state, encoded as 4 * tile index plus the
+	 *   direction ordinal
+	 * @param visited The epoch and bitmask of visited directions per tile, all
+	 *   epochs must be lower than the current one
+	 * @param epoch The epoch of this simulation
+	 * @param stack The work stack, large enough to hold every beam state
+	 * @return The number of energised tiles
+	 */
+	protected int simulate( final int state, final int[] visited, final int epoch, final int[] stack ) {
+		final int mark = epoch << 4;
+		int energised = 0;
+		int sp = 0;
+		stack[ sp++ ] = state;
+		while( sp > 0 ) {
+			final int s = stack[ --sp ];
+			int idx = s >> 2;
+			int dir = s & 3;
+			
+			while( idx >= 0 ) {
+				// check if the tile was energised before in this simulation and
+				// stop if we have seen this vector already
+				int v = visited[ idx ];
+				if( (v & ~15) != mark ) {
+					v = mark;
+					energised++;
+				} else if( (v & (1 << dir)) != 0 ) break;
+				
+				// new vector, register it
+				visited[ idx ] = v | (1 << dir);
+				
+				// continue in the first outgoing direction and push the other, if
+				// the beam is split
+				final int exits = getExits( tiles[ idx ], dir );
+				final int next = Integer.numberOfTrailingZeros( exits );
+				if( exits != 1 << next ) {
+					final int other = 31 - Integer.numberOfLeadingZeros( exits );
+					final int otheridx = step( idx, other );
+					if( otheridx >= 0 ) stack[ sp++ ] = 4 * otheridx + other;
+				}
+				dir = next;
+				idx = step( idx, dir );
+			}
+		}
+		return energised;
 	}
 	
 	/**
 	 * Finds the laser starting configuration that energises the most tiles in
-	 * the maze.
+	 * the maze. Instead of simulating the laser from every starting
+	 * configuration, the beam segments are precomputed into a graph from which
+	 * the energised tiles of every start follow directly.
 	 * 
 	 * @return The amount of tiles energised in the configuration that maximises
 	 *   this
 	 */
 	public long maximiseEnergised( ) {
-		// build a set of all possible starting coordinates and directions
-		final Window2D W = mirrors.window( );
-		final List<Laser> S = new ArrayList<>( );
-		for( int y = W.getMinY( ); y <= W.getMaxY( ); y++ ) {
-			S.add( new Laser( new Coord2D( W.getMinX( ), y ), Direction.East ) );
-			S.add( new Laser( new Coord2D( W.getMaxX( ), y ), Direction.West ) );
-		}
-		for( int x = W.getMinX( ); x <= W.getMaxX( ); x++ ) {
-			S.add( new Laser( new Coord2D( x, W.getMinY( ) ), Direction.South ) );
-			S.add( new Laser( new Coord2D( x, W.getMaxY( ) ), Direction.North ) );
-		}
+		final BeamGraph G = new BeamGraph( );
 		
 		// try firing a laser from any of the edge coordinates and find the
 		// configuration that energises the most tiles
-		return S.stream( ).mapToLong( v -> countEnergised( v.pos, v.dir ) ).max( ).getAsLong( );
+		long max = 0;
+		for( final int count : G.countEnergised( getEdgeStates( ) ) ) max = Math.max( max, count );
+		return max;
 	}
 	
 	/**
-	 * Simulates the firing of a laser by continuously moving its front particle
-	 * in the direction it is facing until it encounters any mirror that reflects
-	 * or splits the beam. Hitting a mirror will result in one or two new lasers
-	 * being emitted and simulated. This process continues until either the laser
-	 * goes outside of the cave bounds or it ends up in a cycle, i.e., a position
-	 * and direction that we've already seen in the simulation.
+	 * Fires a laser from every edge tile into the maze and records the number of
+	 * tiles energised by each of them. The start configurations are distributed
+	 * over parallel workers that take the next unprocessed start when they are
+	 * done with the previous one. Every worker reuses its own scratch buffers
+	 * for all of its simulations.
 	 * 
-	 * @param origin The starting vector of the laser beam particle
-	 * @param visited The set of already seen vectors
+	 * @return The energy profile of all starting configurations
 	 */
-	private void fire( final Laser origin, final Set<Laser> visited ) {
-		// copy the laser so that we can modify it to move the particle
-		Laser laser = new Laser( origin.pos, origin.dir );
-		
-		// continue simulation until we either run out of bounds or try to simulate
-		// a known vector again
-		while( mirrors.contains( laser.pos ) && !visited.contains( laser ) ) { 
-			// new vector, register it
-			visited.add( laser );
-			
-			// simulate the next step based on the tile in the maze
-			final char ch = mirrors.get( laser.pos );
-			switch( ch ) {
-				case '\\':
-				case '/':
-					// reflect the laser
-					final Direction newdir;
-					switch( laser.dir ) {
-						case North: newdir = ch == '\\' ? Direction.West : Direction.East; break;
-						case South: newdir = ch == '\\' ? Direction.East : Direction.West; break;
-						case West: newdir = ch == '\\' ? Direction.North : Direction.South; break;
-						case East: newdir = ch == '\\' ? Direction.South : Direction.North; break;
-						default: throw new RuntimeException( "Unknown direction: " + laser.dir );
-					}
-					fire( new Laser( laser.pos, newdir).move( ), visited );
-					return;
-				
-				case '|':
-					// stop this laser and fire two new beams
-					if( laser.dir == Direction.East || laser.dir == Direction.West ) {
-						fire( new Laser( laser.pos, Direction.North ).move( ), visited );
-						fire( new Laser( laser.pos, Direction.South ).move( ), visited );
-						return;
-					}
-					break;
-					
-				case '-':
-					// stop this laser and fire two new beams
-					if( laser.dir == Direction.North || laser.dir == Direction.South ) {
-						fire( new Laser( laser.pos, Direction.West ).move( ), visited );
-						fire( new Laser( laser.pos, Direction.East ).move( ), visited );
-						return;
-					}
-					break;
+	public EnergyProfile getEnergyProfile( ) {
+		final int[] states = getEdgeStates( );
+		final int[] energy = new int[ states.length ];
+		final AtomicInteger next = new AtomicInteger( );
+		final int workers = Math.min( states.length, Runtime.getRuntime( ).availableProcessors( ) );
+		IntStream.range( 0, workers ).parallel( ).forEach( w -> {
+			final Scratch scratch = new Scratch( );
+			for( int i = next.getAndIncrement( ); i < states.length; i = next.getAndIncrement( ) )
+				energy[i] = scratch.simulate( states[i] );
+		} );
+		return new EnergyProfile( width, states, energy );
+	}
+	
+	/**
+	 * Determines all beam states that enter the maze from one of its edges
+	 * 
+	 * @return The array of beam states, each encoded as 4 * tile index plus the
+	 *   direction ordinal
+	 */
+	protected int[] getEdgeStates( ) {
+		final int[] states = new int[ 2 * width + 2 * height ];
+		int n = 0;
+		for( int y = 0; y < height; y++ ) {
+			states[ n++ ] = 4 * (y * width) + E;
+			states[ n++ ] = 4 * (y * width + width - 1) + W;
+		}
+		for( int x = 0; x < width; x++ ) {
+			states[ n++ ] = 4 * x + S;
+			states[ n++ ] = 4 * ((height - 1) * width + x) + N;
+		}
+		return states;
+	}
+	
+	/**
+	 * Determines the directions in which a beam continues after it enters a
+	 * tile
+	 * 
+	 * @param tile The tile character
+	 * @param dir The direction ordinal of the beam
+	 * @return The bitmask of outgoing direction ordinals
+	 */
+	protected static int getExits( final byte tile, final int dir ) {
+		switch( tile ) {
+			case '/': return 1 << (dir ^ 1);
+			case '\\': return 1 << (3 - dir);
+			case '|': return dir == E || dir == W ? (1 << N) | (1 << S) : 1 << dir;
+			case '-': return dir == N || dir == S ? (1 << E) | (1 << W) : 1 << dir;
+			default: return 1 << dir;
+		}
+	}
+	
+	/**
+	 * Moves a beam one tile in the given direction
+	 * 
+	 * @param idx The current tile index
+	 * @param dir The direction ordinal
+	 * @return The index of the next tile, or -1 if the beam leaves the maze
+	 */
+	protected int step( final int idx, final int dir ) {
+		switch( dir ) {
+			case N: return idx >= width ? idx - width : -1;
+			case E: return idx % width < width - 1 ? idx + 1 : -1;
+			case S: return idx + width < tiles.length ? idx + width : -1;
+			default: return idx % width > 0 ? idx - 1 : -1;
+		}
+	}
+	
+	/**
+	 * The buffers needed to simulate a laser, which can be reused for any number
+	 * of simulations by a single thread
+	 * 
+	 * @author Joris
+	 */
+	private class Scratch {
+		/** The epoch and bitmask of visited directions per tile */
+		private final int[] visited = new int[ tiles.length ];
+		
+		/** The work stack of beam states */
+		private final int[] stack = new int[ 4 * tiles.length + 1 ];
+		
+		/** The epoch of the last simulation */
+		private int epoch = 0;
+		
+		/**
+		 * Simulates a laser in a new epoch, the buffer is only cleared when the
+		 * epochs run out
+		 * 
+		 * @param state The initial beam state
+		 * @return The number of energised tiles
+		 */
+		protected int simulate( final int state ) {
+			if( ++epoch == MAX_EPOCH ) {
+				Arrays.fill( visited, 0 );
+				epoch = 1;
 			}
-
-			// no action, simply move the laser beam along its trajectory
-			laser = laser.move( );
-
+			return MirrorMaze.this.simulate( state, visited, epoch, stack );
 		}
 	}
 	
 	/**
-	 * Simple, vector-like class that holds the position and direction of the
-	 * laser beam's front particle
+	 * The number of tiles energised by a laser for every starting configuration
+	 * on the edge of the maze
 	 * 
 	 * @author Joris
-	 *
 	 */
-	private static class Laser { 
-		/** The position of the laser beam front */
-		public final Coord2D pos;
+	public static class EnergyProfile {
+		/** The width of the maze */
+		private final int width;
 		
-		/** The direction the laser is shot in */
-		public final Direction dir;
+		/** The start states of the laser */
+		private final int[] states;
+		
+		/** The number of energised tiles per start state */
+		private final int[] energy;
+		
+		/** The largest number of energised tiles over all start states */
+		public final int maximum;
 		
 		/**
-		 * Creates a new laser
+		 * Creates a new energy profile
 		 * 
-		 * @param c The position of the laser beam's front particle
-		 * @param d The direction it is travelling in
+		 * @param width The width of the maze
+		 * @param states The start states
+		 * @param energy The number of energised tiles per start state
+		 */
+		protected EnergyProfile( final int width, final int[] states, final int[] energy ) {
+			this.width = width;
+			this.states = states;
+			this.energy = energy;
+			
+			int max = 0;
+			for( final int e : energy ) max = Math.max( max, e );
+			maximum = max;
+		}
+		
+		/** @return The number of starting configurations in the profile */
+		public int size( ) {
+			return states.length;
+		}
+		
+		/**
+		 * @param i The index of the starting configuration
+		 * @return The position at which the laser enters the maze
 		 */
-		public Laser( final Coord2D c, final Direction d ) {
-			this.pos = c;
-			this.dir = d;
+		public Coord2D getStart( final int i ) {
+			final int idx = states[i] >> 2;
+			return new Coord2D( idx % width, idx / width );
 		}
 		
 		/**
-		 * Moves the head of the laser beam one step along its trajectory
-		 * @return A new laser particle with the new position
+		 * @param i The index of the starting configuration
+		 * @return The direction in which the laser is fired
 		 */
-		public Laser move( ) {
-			return new Laser( pos.move( dir, 1 ), dir );
+		public Direction getDirection( final int i ) {
+			switch( states[i] & 3 ) {
+				case N: return Direction.North;
+				case E: return Direction.East;
+				case S: return Direction.South;
+				default: return Direction.West;
+			}
+		}
+		
+		/**
+		 * @param i The index of the starting configuration
+		 * @return The number of tiles energised by the laser
+		 */
+		public int getEnergised( final int i ) {
+			return energy[i];
+		}
+	}
+	
+	/**
+	 * Graph of all beam segments in the maze. A segment is a straight part of a
+	 * beam that starts at the edge or right after a mirror or splitter that
+	 * changed its direction, and runs up to and including the next tile that
+	 * changes its direction again. Every segment leads to at most two other
+	 * segments. The graph is condensed into its strongly connected components,
+	 * i.e., the loops that beams can get stuck in, and the tiles energised by
+	 * everything reachable from a component are combined along the resulting
+	 * DAG. Hence, the energised tiles of any start follow from the set of its
+	 * component, without simulating the beam.
+	 * 
+	 * @author Joris
+	 */
+	protected class BeamGraph {
+		/** The node of every beam state, or -1 if it does not start a segment */
+		protected final int[] nodeof;
+		
+		/** The number of segment nodes */
+		protected int nodes;
+		
+		/** The first tile of every segment */
+		protected final int[] segstart;
+		
+		/** The direction of every segment */
+		protected final int[] segdir;
+		
+		/** The number of tiles in every segment */
+		protected final int[] seglength;
+		
+		/** The (at most two) successor nodes of every node, -1 if absent */
+		protected final int[] succ;
+		
+		/** The component of every node */
+		protected final int[] component;
+		
+		/** The number of components */
+		protected int components;
+		
+		/** The nodes per component, grouped by component */
+		protected final int[] compnodes;
+		
+		/** The offset of every component in the compnodes array */
+		protected final int[] compoffset;
+		
+		/**
+		 * Builds the segment graph for all beams that enter the maze from its
+		 * edges and condenses it
+		 */
+		protected BeamGraph( ) {
+			// count the direction changing tiles to bound the number of segments,
+			// each of these tiles starts at most one segment per direction
+			int turns = 0;
+			for( int i = 0; i < tiles.length; i++ ) if( tiles[i] != '.' ) turns++;
+			final int maxnodes = 4 * turns + 2 * width + 2 * height;
+			
+			nodeof = new int[ 4 * tiles.length ];
+			Arrays.fill( nodeof, -1 );
+			segstart = new int[ maxnodes ];
+			segdir = new int[ maxnodes ];
+			seglength = new int[ maxnodes ];
+			succ = new int[ 2 * maxnodes ];
+			Arrays.fill( succ, -1 );
+			
+			// discover all segments that are reachable from the edges
+			for( final int state : getEdgeStates( ) ) addNode( state );
+			for( int n = 0; n < nodes; n++ ) traceSegment( n );
+			
+			// condense the graph into its strongly connected components
+			component = new int[ nodes ];
+			findComponents( );
+			
+			// and group the nodes per component
+			compoffset = new int[ components + 1 ];
+			for( int n = 0; n < nodes; n++ ) compoffset[ component[n] + 1 ]++;
+			for( int c = 0; c < components; c++ ) compoffset[ c + 1 ] += compoffset[c];
+			compnodes = new int[ nodes ];
+			final int[] fill = Arrays.copyOf( compoffset, components );
+			for( int n = 0; n < nodes; n++ ) compnodes[ fill[ component[n] ]++ ] = n;
+		}
+		
+		/**
+		 * Returns the node that starts with the given beam state, creating it if
+		 * it does not exist yet
+		 * 
+		 * @param state The beam state
+		 * @return The node ID
+		 */
+		private int addNode( final int state ) {
+			if( nodeof[ state ] < 0 ) {
+				segstart[ nodes ] = state >> 2;
+				segdir[ nodes ] = state & 3;
+				nodeof[ state ] = nodes++;
+			}
+			return nodeof[ state ];
 		}
 		
 		/**
-		 * Tests this particle against another object for equality
+		 * Follows the segment of a node until its beam changes direction or
+		 * leaves the maze, and adds its successors to the graph
 		 * 
-		 * @param obj The other object to test against
-		 * @return True iff the other object is a valid Laser with the same
-		 *   position and direction
+		 * @param node The node to trace
 		 */
-		@Override
-		public boolean equals( final Object obj ) {
-			if( obj == null || !(obj instanceof Laser) ) return false;
-			final Laser v = (Laser) obj;
-			return v.pos.equals( pos ) && v.dir == dir;
+		private void traceSegment( final int node ) {
+			final int dir = segdir[ node ];
+			int idx = segstart[ node ];
+			int length = 1;
+			int exits = getExits( tiles[ idx ], dir );
+			while( exits == 1 << dir ) {
+				idx = step( idx, dir );
+				if( idx < 0 ) break;
+				exits = getExits( tiles[ idx ], dir );
+				length++;
+			}
+			seglength[ node ] = length;
+			if( idx < 0 ) return;
+			
+			// the beam changed direction, add the segments that follow
+			int s = 0;
+			for( int d = 0; d < 4; d++ ) {
+				if( (exits & (1 << d)) == 0 ) continue;
+				final int next = step( idx, d );
+				if( next >= 0 ) succ[ 2 * node + s++ ] = addNode( 4 * next + d );
+			}
 		}
 		
-		/** @return The string description of the laser particle */
-		@Override
-		public String toString( ) {
-			return pos.toString( ) + dir.toString( ).charAt( 0 );
+		/**
+		 * Finds the strongly connected components of the graph using an
+		 * iterative version of Tarjan's algorithm. The components are numbered in
+		 * reverse topological order, i.e., successors of a component always have
+		 * a lower number.
+		 */
+		private void findComponents( ) {
+			final int[] index = new int[ nodes ];
+			final int[] low = new int[ nodes ];
+			final boolean[] onstack = new boolean[ nodes ];
+			final int[] stack = new int[ nodes ];
+			final int[] callstack = new int[ nodes ];
+			final int[] callsucc = new int[ nodes ];
+			Arrays.fill( index, -1 );
+			int sp = 0;
+			int counter = 0;
+			components = 0;
+			
+			for( int root = 0; root < nodes; root++ ) {
+				if( index[ root ] >= 0 ) continue;
+				
+				int cp = 0;
+				callstack[ cp ] = root;
+				callsucc[ cp++ ] = 0;
+				index[ root ] = low[ root ] = counter++;
+				stack[ sp++ ] = root;
+				onstack[ root ] = true;
+				
+				while( cp > 0 ) {
+					final int n = callstack[ cp - 1 ];
+					
+					// visit the next successor of the node on top of the call stack
+					if( callsucc[ cp - 1 ] < 2 ) {
+						final int m = succ[ 2 * n + callsucc[ cp - 1 ]++ ];
+						if( m < 0 ) continue;
+						if( index[m] < 0 ) {
+							index[m] = low[m] = counter++;
+							stack[ sp++ ] = m;
+							onstack[m] = true;
+							callstack[ cp ] = m;
+							callsucc[ cp++ ] = 0;
+						} else if( onstack[m] ) {
+							low[n] = Math.min( low[n], index[m] );
+						}
+						continue;
+					}
+					
+					// all successors visited, pop the component if this is its root
+					if( low[n] == index[n] ) {
+						int m;
+						do {
+							m = stack[ --sp ];
+							onstack[m] = false;
+							component[m] = components;
+						} while( m != n );
+						components++;
+					}
+					
+					// and return to the caller
+					cp--;
+					if( cp > 0 ) {
+						final int caller = callstack[ cp - 1 ];
+						low[ caller ] = Math.min( low[ caller ], low[n] );
+					}
+				}
+			}
 		}
 		
-		/** @return The hash code of the (unique) toString result */
-		@Override
-		public int hashCode( ) {
-			return toString( ).hashCode( );
+		/**
+		 * Counts the number of tiles energised by beams that start in the given
+		 * states. The sets of energised tiles are computed for all components
+		 * that are reachable from the start states, in reverse topological order
+		 * so that the sets of all successors are known when a component is
+		 * processed. A set is released as soon as all components that lead to it
+		 * have used it, so that only the sets on the frontier of the DAG are kept
+		 * in memory. If even these do not fit, the sets that are not kept are
+		 * reconstructed from the segments and known sets of their successors.
+		 * 
+		 * @param states The beam states, each must start a segment in the graph
+		 * @return The number of energised tiles per start state
+		 */
+		public int[] countEnergised( final int[] states ) {
+			// find all components reachable from the start states and count the
+			// number of edges into every one of them
+			final boolean[] reachable = new boolean[ components ];
+			final int[] refs = new int[ components ];
+			final int[] stack = new int[ components ];
+			int sp = 0;
+			for( final int state : states ) {
+				final int c = component[ nodeof[ state ] ];
+				if( reachable[c] ) continue;
+				reachable[c] = true;
+				stack[ sp++ ] = c;
+			}
+			while( sp > 0 ) {
+				final int c = stack[ --sp ];
+				for( int i = compoffset[c]; i < compoffset[ c + 1 ]; i++ )
+					for( int s = 0; s < 2; s++ ) {
+						final int m = succ[ 2 * compnodes[i] + s ];
+						if( m < 0 || component[m] == c ) continue;
+						refs[ component[m] ]++;
+						if( !reachable[ component[m] ] ) {
+							reachable[ component[m] ] = true;
+							stack[ sp++ ] = component[m];
+						}
+					}
+			}
+			
+			// then combine the sets, successors always have a lower number. The
+			// number of sets that is kept is bounded by the available memory, the
+			// sets of components that could not be kept are reconstructed from
+			// their successors when needed
+			final int words = (tiles.length + 63) / 64;
+			final long maxkept = Math.max( 1, Runtime.getRuntime( ).maxMemory( ) / 4 / (8L * words + 16) );
+			final long[][] energised = new long[ components ][];
+			final int[] counts = new int[ components ];
+			final int[] stamp = new int[ components ];
+			long kept = 0;
+			for( int c = 0; c < components; c++ ) {
+				if( !reachable[c] ) continue;
+				
+				final long[] bits = new long[ words ];
+				collect( c, bits, energised, stamp, c + 1, stack );
+				for( int i = compoffset[c]; i < compoffset[ c + 1 ]; i++ )
+					for( int s = 0; s < 2; s++ ) {
+						final int m = succ[ 2 * compnodes[i] + s ];
+						if( m < 0 || component[m] == c ) continue;
+						
+						// release the set of the successor if this was its last user
+						if( --refs[ component[m] ] == 0 && energised[ component[m] ] != null ) {
+							energised[ component[m] ] = null;
+							kept--;
+						}
+					}
+				
+				for( final long w : bits ) counts[c] += Long.bitCount( w );
+				if( refs[c] > 0 && kept < maxkept ) {
+					energised[c] = bits;
+					kept++;
+				}
+			}
+			
+			final int[] result = new int[ states.length ];
+			for( int i = 0; i < states.length; i++ ) result[i] = counts[ component[ nodeof[ states[i] ] ] ];
+			return result;
+		}
+		
+		/**
+		 * Adds the tiles energised by a beam that enters the given component to
+		 * the set. Successor components of which the set is known are added
+		 * directly, others are traversed further.
+		 * 
+		 * @param comp The component to start from
+		 * @param bits The bitset of tiles to add the energised tiles to
+		 * @param energised The known sets of energised tiles per component
+		 * @param stamp The stamp per component that marks it as visited
+		 * @param epoch The stamp value of the current traversal
+		 * @param stack The work stack, large enough to hold all components
+		 */
+		private void collect( final int comp, final long[] bits, final long[][] energised, final int[] stamp, final int epoch, final int[] stack ) {
+			int sp = 0;
+			stamp[ comp ] = epoch;
+			stack[ sp++ ] = comp;
+			while( sp > 0 ) {
+				final int c = stack[ --sp ];
+				if( c != comp && energised[c] != null ) {
+					final long[] other = energised[c];
+					for( int w = 0; w < bits.length; w++ ) bits[w] |= other[w];
+					continue;
+				}
+				
+				// mark the tiles of the segments in this component and continue
+				// with its successors
+				for( int i = compoffset[c]; i < compoffset[ c + 1 ]; i++ ) {
+					final int n = compnodes[i];
+					for( int j = 0, idx = segstart[n]; j < seglength[n]; j++, idx = step( idx, segdir[n] ) )
+						bits[ idx >>> 6 ] |= 1L << idx;
+					for( int s = 0; s < 2; s++ ) {
+						final int m = succ[ 2 * n + s ];
+						if( m < 0 || stamp[ component[m] ] == epoch ) continue;
+						stamp[ component[m] ] = epoch;
+						stack[ sp++ ] = component[m];
+					}
+				}
+			}
 		}
 	}
 } 